@@ -0,0 +1,499 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * インストール済みアプリ一覧をバックグラウンドで読み込むローダー
+ * 解決できたアプリから順にバッチ単位でメインスレッドへ配信する
+ *
+ * 前回のスナップショットがあればまずそれを配信し、その後は
+ * PackageManager.getChangedPackages() による差分だけを解決する。
+ *
+ * アプリは LauncherApps で自分のプロファイルと仕事用プロファイルなどから列挙する。
+ * プロファイルごとの列挙は上限付きのスレッドプールで並行して行い、結果はローダースレッドでまとめる。
+ * getChangedPackages() は自分のプロファイルの変更しか報告しないため、
+ * 他のプロファイルは差分更新のときも毎回列挙し直す。
+ *
+ * 前回の一覧がない場合、優先するアプリ（よく使うアプリ）は列挙より先に解決して配信する。
+ */
+public class AppCatalogLoader {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    // 最初のバッチは1フレーム(約16ms)以内に描画できる件数に抑える
+    private static final int FIRST_BATCH_SIZE = 12;
+    private static final long FIRST_BATCH_MAX_DELAY_MS = 8;
+
+    // 以降のバッチは件数か経過時間のどちらかで区切る
+    private static final int BATCH_SIZE = 48;
+    private static final long BATCH_MAX_DELAY_MS = 32;
+
+    // プロファイルを並行して列挙するスレッド数の上限
+    private static final int MAX_PROFILE_THREADS = 3;
+
+    // 列挙の完了待ちの間に中断を確認する間隔
+    private static final long POLL_INTERVAL_MS = 100;
+
+    /**
+     * 読み込み結果を受け取るコールバック（メインスレッドで呼ばれる）
+     */
+    public interface Callback {
+        /** 追加または更新されたアプリ（パッケージ名で置き換える） */
+        void onAppsLoaded(List<AppInfo> batch);
+        /** アンインストールされたか、ランチャーに表示されなくなったアプリ（AppInfo.key） */
+        void onAppsRemoved(List<String> keys);
+        void onLoadFinished();
+    }
+
+    /**
+     * 1つのプロファイルの列挙の終了（ワーカースレッドからローダースレッドへの通知）
+     */
+    private static final class ProfileDone {
+        final long userSerial;
+        /** 最後まで列挙できた場合だけ true（途中で失敗したプロファイルのアプリは削除しない） */
+        final boolean complete;
+
+        ProfileDone(long userSerial, boolean complete) {
+            this.userSerial = userSerial;
+            this.complete = complete;
+        }
+    }
+
+    private final PackageManager packageManager;
+    private final LauncherApps launcherApps;
+    private final UserManager userManager;
+    private final UserHandle myUser;
+    private final ContentResolver contentResolver;
+    private final File snapshotDir;
+    private final String selfPackageName;
+    private final List<String> priorityKeys;
+    private final Callback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "AppCatalogLoader");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private final ThreadPoolExecutor profileExecutor = new ThreadPoolExecutor(
+        MAX_PROFILE_THREADS, MAX_PROFILE_THREADS, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        r -> {
+            Thread thread = new Thread(r, "AppCatalogLoader-profile");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+
+    // 以下はローダースレッドからのみ触る（キーは AppInfo.key）
+    private final Map<String, AppInfo> catalog = new LinkedHashMap<>();
+    private int bootCount;
+    private int sequenceNumber;
+    // 列挙より先に解決したアプリ（列挙を始める前に設定し、プロファイル用のスレッドからは読むだけ）
+    private Map<String, AppInfo> prioritized = Collections.emptyMap();
+    private final AppCollation collation = new AppCollation(Locale.getDefault());
+
+    private volatile boolean cancelled;
+    private Future<?> task;
+
+    /**
+     * @param priorityKeys 先に解決するアプリ（AppInfo.key、優先する順）
+     */
+    public AppCatalogLoader(Context context, List<String> priorityKeys, Callback callback) {
+        this.packageManager = context.getPackageManager();
+        this.launcherApps = context.getSystemService(LauncherApps.class);
+        this.userManager = context.getSystemService(UserManager.class);
+        this.myUser = Process.myUserHandle();
+        this.contentResolver = context.getContentResolver();
+        this.snapshotDir = context.getFilesDir();
+        this.selfPackageName = context.getPackageName();
+        this.priorityKeys = new ArrayList<>(priorityKeys);
+        this.callback = callback;
+        profileExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * バックグラウンドで読み込みを開始
+     */
+    public void start() {
+        if (task == null && !cancelled) {
+            task = executor.submit(this::load);
+        }
+    }
+
+    /**
+     * パッケージの追加・削除・変更通知を受けて差分だけを再解決する
+     * （対象のパッケージはすべてのプロファイルで解決し直す）
+     */
+    public void refresh(String packageName) {
+        if (cancelled) {
+            return;
+        }
+        executor.execute(() -> {
+            Set<String> changed = new LinkedHashSet<>();
+            if (packageName != null) {
+                changed.add(packageName);
+            }
+            ChangedPackages changes = packageManager.getChangedPackages(sequenceNumber);
+            if (changes != null) {
+                changed.addAll(changes.getPackageNames());
+                sequenceNumber = changes.getSequenceNumber();
+            }
+            if (applyChanges(changed)) {
+                saveSnapshot();
+            }
+        });
+    }
+
+    /**
+     * 読み込みを中断し、未配信のバッチも破棄する
+     */
+    public void cancel() {
+        cancelled = true;
+        if (task != null) {
+            task.cancel(true);
+        }
+        executor.shutdownNow();
+        profileExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void load() {
+        bootCount = Settings.Global.getInt(contentResolver, Settings.Global.BOOT_COUNT, -1);
+        String localeTag = Locale.getDefault().toLanguageTag();
+
+        AppCatalogSnapshot snapshot = AppCatalogSnapshot.read(snapshotDir);
+        if (snapshot != null) {
+            for (AppInfo app : snapshot.apps) {
+                catalog.put(app.key(), app);
+            }
+            // 前回の一覧を一括で表示
+            deliver(new ArrayList<>(catalog.values()));
+
+            // 同じ起動中・同じロケールなら変更のあったパッケージだけ解決すれば良い
+            if (snapshot.bootCount == bootCount && localeTag.equals(snapshot.localeTag)) {
+                sequenceNumber = snapshot.sequenceNumber;
+                ChangedPackages changes = packageManager.getChangedPackages(sequenceNumber);
+                boolean changed = false;
+                if (changes != null) {
+                    sequenceNumber = changes.getSequenceNumber();
+                    changed = applyChanges(changes.getPackageNames());
+                }
+                // 他のプロファイルの変更は報告されないので列挙し直す
+                List<UserHandle> otherProfiles = new ArrayList<>(launcherApps.getProfiles());
+                otherProfiles.remove(myUser);
+                if (!scanProfiles(otherProfiles)) {
+                    return;
+                }
+                if (changed || !otherProfiles.isEmpty()) {
+                    saveSnapshot();
+                }
+                finish();
+                return;
+            }
+        }
+
+        // スキャン開始前の番号を記録し、スキャン中の変更は次回の差分で拾う
+        ChangedPackages current = packageManager.getChangedPackages(0);
+        sequenceNumber = current != null ? current.getSequenceNumber() : 0;
+
+        // 表示できる一覧がまだなければ、最初の画面に並ぶアプリから解決する
+        if (catalog.isEmpty()) {
+            resolvePriorityApps();
+        }
+
+        if (scanProfiles(launcherApps.getProfiles())) {
+            saveSnapshot();
+            finish();
+        }
+    }
+
+    /**
+     * 指定したプロファイルのランチャーアクティビティをすべて解決する。中断された場合は false
+     * 列挙はプロファイルごとに並行して行い、解決できたアプリから順にバッチで配信する。
+     * 列挙したプロファイルで見つからなくなったアプリと、なくなったプロファイルのアプリは削除する。
+     */
+    private boolean scanProfiles(List<UserHandle> profiles) {
+        BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        List<Future<?>> scans = new ArrayList<>(profiles.size());
+        for (UserHandle user : profiles) {
+            scans.add(profileExecutor.submit(() -> scanProfile(user, results)));
+        }
+
+        Set<String> seenKeys = new HashSet<>();
+        Set<Long> completeSerials = new HashSet<>();
+        List<AppInfo> batch = new ArrayList<>(FIRST_BATCH_SIZE);
+        int batchLimit = FIRST_BATCH_SIZE;
+        long batchDelayMs = FIRST_BATCH_MAX_DELAY_MS;
+        long batchStart = SystemClock.uptimeMillis();
+        int remaining = profiles.size();
+
+        try {
+            while (remaining > 0) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    cancelAll(scans);
+                    return false;
+                }
+
+                long waitMs = batch.isEmpty()
+                    ? POLL_INTERVAL_MS
+                    : Math.max(0, batchStart + batchDelayMs - SystemClock.uptimeMillis());
+                Object result = results.poll(waitMs, TimeUnit.MILLISECONDS);
+                if (result instanceof AppInfo) {
+                    AppInfo app = (AppInfo) result;
+                    String key = app.key();
+                    // 先に解決して配信済みのアプリ（同じインスタンス）は配信し直さない
+                    if (seenKeys.add(key) && catalog.get(key) != app) {
+                        catalog.put(key, app);
+                        batch.add(app);
+                    }
+                } else if (result instanceof ProfileDone) {
+                    ProfileDone done = (ProfileDone) result;
+                    if (done.complete) {
+                        completeSerials.add(done.userSerial);
+                    }
+                    remaining--;
+                }
+
+                if (batch.size() >= batchLimit
+                        || SystemClock.uptimeMillis() - batchStart >= batchDelayMs) {
+                    deliver(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                    batchLimit = BATCH_SIZE;
+                    batchDelayMs = BATCH_MAX_DELAY_MS;
+                    batchStart = SystemClock.uptimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll(scans);
+            return false;
+        }
+        deliver(batch);
+
+        // スナップショットにはあったが、もう存在しないアプリ
+        Set<Long> liveSerials = new HashSet<>();
+        for (UserHandle user : launcherApps.getProfiles()) {
+            liveSerials.add(userManager.getSerialNumberForUser(user));
+        }
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, AppInfo> entry : catalog.entrySet()) {
+            long userSerial = entry.getValue().userSerial;
+            if (!liveSerials.contains(userSerial)
+                    || (completeSerials.contains(userSerial) && !seenKeys.contains(entry.getKey()))) {
+                removed.add(entry.getKey());
+            }
+        }
+        removeAll(removed);
+        return true;
+    }
+
+    /**
+     * 1つのプロファイルを列挙する（プロファイル用のスレッドで実行）
+     * 解決したアプリと、最後に ProfileDone を results に入れる
+     */
+    private void scanProfile(UserHandle user, BlockingQueue<Object> results) {
+        long userSerial = userManager.getSerialNumberForUser(user);
+        boolean complete = false;
+        try {
+            Set<String> seenPackages = new HashSet<>();
+            for (LauncherActivityInfo info : launcherApps.getActivityList(null, user)) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                String packageName = info.getComponentName().getPackageName();
+
+                // 自分自身と、同一パッケージの2つ目以降のランチャーアクティビティを除外
+                if (packageName.equals(selfPackageName) || !seenPackages.add(packageName)) {
+                    continue;
+                }
+
+                AppInfo app = prioritized.isEmpty()
+                    ? null : prioritized.get(AppInfo.keyOf(userSerial, packageName));
+                if (app == null) {
+                    app = resolve(info, user, userSerial);
+                }
+                if (app != null) {
+                    results.add(app);
+                }
+            }
+            complete = true;
+        } catch (RuntimeException e) {
+            // プロファイルが削除された、またはロックされているなど
+            Log.w(TAG, "Failed to enumerate profile " + userSerial + ": " + e.getMessage());
+        } finally {
+            results.add(new ProfileDone(userSerial, complete));
+        }
+    }
+
+    /**
+     * 優先するアプリだけを先に解決し、1つのバッチで配信する
+     */
+    private void resolvePriorityApps() {
+        Map<String, AppInfo> resolved = new LinkedHashMap<>();
+        for (String key : priorityKeys) {
+            if (cancelled) {
+                return;
+            }
+            int slash = key.indexOf('/');
+            long userSerial = Long.parseLong(key.substring(0, slash));
+            String packageName = key.substring(slash + 1);
+            UserHandle user = userManager.getUserForSerialNumber(userSerial);
+            if (user == null || packageName.equals(selfPackageName)) {
+                continue;
+            }
+            AppInfo app = resolvePackage(packageName, user, userSerial);
+            if (app != null) {
+                catalog.put(key, app);
+                resolved.put(key, app);
+            }
+        }
+        prioritized = resolved;
+        deliver(new ArrayList<>(resolved.values()));
+    }
+
+    private static void cancelAll(List<Future<?>> scans) {
+        for (Future<?> scan : scans) {
+            scan.cancel(true);
+        }
+    }
+
+    /**
+     * 指定パッケージだけをすべてのプロファイルで解決し直す。一覧に変化があれば true
+     */
+    private boolean applyChanges(Collection<String> packageNames) {
+        List<AppInfo> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<UserHandle> profiles = launcherApps.getProfiles();
+
+        for (String packageName : packageNames) {
+            if (packageName.equals(selfPackageName)) {
+                continue;
+            }
+            for (UserHandle user : profiles) {
+                if (cancelled) {
+                    return false;
+                }
+                long userSerial = userManager.getSerialNumberForUser(user);
+                String key = AppInfo.keyOf(userSerial, packageName);
+                AppInfo app = resolvePackage(packageName, user, userSerial);
+                if (app != null) {
+                    catalog.put(key, app);
+                    updated.add(app);
+                } else if (catalog.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+
+        deliver(updated);
+        removeAll(removed);
+        return !updated.isEmpty() || !removed.isEmpty();
+    }
+
+    private AppInfo resolvePackage(String packageName, UserHandle user, long userSerial) {
+        try {
+            List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, user);
+            return activities.isEmpty() ? null : resolve(activities.get(0), user, userSerial);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to resolve " + packageName + " in profile " + userSerial
+                + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private AppInfo resolve(LauncherActivityInfo info, UserHandle user, long userSerial) {
+        String packageName = info.getComponentName().getPackageName();
+        boolean workProfile = !user.equals(myUser);
+        try {
+            // APK は端末で共有されるので、他のプロファイルにだけあるアプリもバージョンは取得できる
+            PackageInfo packageInfo = packageManager.getPackageInfo(packageName,
+                workProfile ? PackageManager.MATCH_UNINSTALLED_PACKAGES : 0);
+            return new AppInfo(
+                packageName,
+                info.getLabel().toString(),
+                packageInfo.getLongVersionCode(),
+                packageInfo.lastUpdateTime,
+                (info.getApplicationInfo().flags & ApplicationInfo.FLAG_SYSTEM) != 0,
+                userSerial,
+                workProfile
+            );
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Package not found: " + packageName);
+            return null;
+        }
+    }
+
+    private void removeAll(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        catalog.keySet().removeAll(keys);
+        List<String> removed = Collections.unmodifiableList(keys);
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                callback.onAppsRemoved(removed);
+            }
+        });
+    }
+
+    private void saveSnapshot() {
+        new AppCatalogSnapshot(
+            bootCount,
+            sequenceNumber,
+            Locale.getDefault().toLanguageTag(),
+            catalog.values()
+        ).write(snapshotDir);
+    }
+
+    private void deliver(List<AppInfo> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 並び替え用のキーはここで一度だけ計算する（メインスレッドでは比較するだけ）
+        collation.assign(batch);
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                callback.onAppsLoaded(batch);
+            }
+        });
+    }
+
+    private void finish() {
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                callback.onLoadFinished();
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package com.tqmane.multiwindowpatch;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * アプリ一覧のディスクスナップショット
+ * 次回起動時に PackageManager を待たず即座に一覧を表示するために使う
+ */
+public class AppCatalogSnapshot {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    private static final String FILE_NAME = "app_catalog.bin";
+    private static final int MAGIC = 0x4D575043; // "MWPC"
+    private static final int FORMAT_VERSION = 2; // 2: プロファイルを追加
+
+    /** 保存時の起動回数。再起動するとシーケンス番号がリセットされるため一緒に保持する */
+    public final int bootCount;
+    /** PackageManager.getChangedPackages() に渡すシーケンス番号 */
+    public final int sequenceNumber;
+    /** ラベルを解決したときのロケール。変わっていれば差分更新では追従できない */
+    public final String localeTag;
+    public final List<AppInfo> apps;
+
+    public AppCatalogSnapshot(int bootCount, int sequenceNumber, String localeTag,
+                              Collection<AppInfo> apps) {
+        this.bootCount = bootCount;
+        this.sequenceNumber = sequenceNumber;
+        this.localeTag = localeTag;
+        this.apps = new ArrayList<>(apps);
+    }
+
+    private static AtomicFile fileIn(File dir) {
+        return new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * スナップショットを読み込む。存在しないか形式が異なる場合は null
+     */
+    public static AppCatalogSnapshot read(File dir) {
+        AtomicFile file = fileIn(dir);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int bootCount = in.readInt();
+            int sequenceNumber = in.readInt();
+            String localeTag = in.readUTF();
+            List<AppInfo> apps = AppCatalogCodec.readApps(in);
+            return new AppCatalogSnapshot(bootCount, sequenceNumber, localeTag, apps);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable catalog snapshot: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * スナップショットを書き込む（途中で失敗しても前回の内容は壊れない）
+     */
+    public void write(File dir) {
+        AtomicFile file = fileIn(dir);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(bootCount);
+            out.writeInt(sequenceNumber);
+            out.writeUTF(localeTag);
+            AppCatalogCodec.writeApps(out, apps);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write catalog snapshot: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
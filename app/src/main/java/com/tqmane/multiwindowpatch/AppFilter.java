@@ -0,0 +1,136 @@
+package com.tqmane.multiwindowpatch;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 検索の絞り込みをワーカースレッドで実行する
+ *
+ * 入力はデバウンスしてからまとめて処理し、各リクエストには世代番号を振る。
+ * 後から新しいリクエストが来た場合、古い世代の結果は破棄され表示されない。
+ * 起動頻度の表が設定されていれば、結果のうちよく使うアプリを先頭に並べる。
+ * 一覧への変更（並び替えと正規化を伴う AppCatalogStore.withChanges）も同じワーカーで行い、
+ * メインスレッドには出来上がったストアだけを結果と一緒に渡す。
+ */
+public class AppFilter {
+
+    public static final long DEFAULT_DEBOUNCE_MS = 120;
+
+    /**
+     * 絞り込み結果を受け取るコールバック（メインスレッドで呼ばれる）
+     */
+    public interface Callback {
+        /**
+         * rows は store の行番号の配列（変更しないこと）
+         * 先頭の frequentCount 行はよく使うアプリ（起動頻度順）、残りはアプリ名順
+         */
+        void onFiltered(AppCatalogStore store, int[] rows, int frequentCount);
+    }
+
+    private final Callback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "AppFilter");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private volatile long debounceMs;
+    private volatile LaunchFrecency ranking;
+    private Runnable pendingQuery;
+
+    // ワーカースレッドからのみ触る
+    private AppSearchIndex index = AppSearchIndex.build(AppCatalogStore.EMPTY);
+
+    public AppFilter(long debounceMs, Callback callback) {
+        this.debounceMs = debounceMs;
+        this.callback = callback;
+    }
+
+    public void setDebounceMs(long debounceMs) {
+        this.debounceMs = debounceMs;
+    }
+
+    /**
+     * 一覧に追加・更新されたアプリと削除されたアプリ（AppInfo.key）を反映し、すぐに絞り込み直す
+     * 変更は呼び出した順にワーカースレッドで適用される
+     */
+    public void updateCatalog(Collection<AppInfo> upserts, Collection<String> removedKeys, String query) {
+        int requestGeneration = supersede();
+        executor.execute(() -> {
+            // 後続の変更とリクエストもこのインデックスを使うので差し替えは必ず行う
+            index = AppSearchIndex.build(index.store().withChanges(upserts, removedKeys));
+            run(requestGeneration, query);
+        });
+    }
+
+    /**
+     * よく使うアプリを先頭に並べるための起動頻度の表（null ならアプリ名順だけ）
+     * 表が変わった場合はすぐに絞り込み直す
+     */
+    public void setRanking(LaunchFrecency ranking, String query) {
+        if (this.ranking == ranking) {
+            return;
+        }
+        this.ranking = ranking;
+        int requestGeneration = supersede();
+        executor.execute(() -> run(requestGeneration, query));
+    }
+
+    /**
+     * キー入力による絞り込み。デバウンス時間内の入力は最後の1回にまとめられる
+     */
+    public void filter(String query) {
+        int requestGeneration = supersede();
+        pendingQuery = () -> executor.execute(() -> run(requestGeneration, query));
+        mainHandler.postDelayed(pendingQuery, debounceMs);
+    }
+
+    /**
+     * 保留中・実行中の絞り込みをすべて破棄する
+     */
+    public void cancel() {
+        supersede();
+        executor.shutdownNow();
+    }
+
+    private int supersede() {
+        if (pendingQuery != null) {
+            mainHandler.removeCallbacks(pendingQuery);
+            pendingQuery = null;
+        }
+        return generation.incrementAndGet();
+    }
+
+    private void run(int requestGeneration, String query) {
+        if (requestGeneration != generation.get()) {
+            return;
+        }
+        AppCatalogStore store = index.store();
+        int[] rows = index.search(query);
+        int frequentCount = 0;
+        LaunchFrecency currentRanking = ranking;
+        if (currentRanking != null) {
+            LaunchFrecency.Ranked ranked = currentRanking.rank(store, rows, System.currentTimeMillis());
+            rows = ranked.rows;
+            frequentCount = ranked.frequentCount;
+        }
+        if (requestGeneration != generation.get()) {
+            return;
+        }
+        int[] resultRows = rows;
+        int resultFrequentCount = frequentCount;
+        mainHandler.post(() -> {
+            // 投稿までの間に新しい入力があれば表示しない
+            if (requestGeneration == generation.get()) {
+                callback.onFiltered(store, resultRows, resultFrequentCount);
+            }
+        });
+    }
+}
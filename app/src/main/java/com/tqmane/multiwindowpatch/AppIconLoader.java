@@ -0,0 +1,161 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * アプリアイコンを必要になった時点で読み込むローダー
+ * 行の表示サイズでビットマップ化し、メモリ上限付きのLRUキャッシュに保持する
+ */
+public class AppIconLoader {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    // ヒープ上限の1/32をアイコン用に使う（数十行分で十分）
+    private static final int CACHE_SIZE_BYTES =
+        (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32);
+
+    // アクティビティを作り直してもデコード結果を再利用できるようプロセス単位で共有
+    private static final LruCache<String, Bitmap> CACHE =
+        new LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "AppIconLoader");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    /**
+     * 読み込み完了を受け取るコールバック（メインスレッドで呼ばれる）
+     */
+    public interface Callback {
+        void onIconLoaded(String key, Bitmap icon);
+    }
+
+    private final LauncherApps launcherApps;
+    private final UserManager userManager;
+    private final long mySerial;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 先読み中のキー（同じアイコンを重ねて先読みしない）
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+
+    public AppIconLoader(Context context) {
+        this.launcherApps = context.getSystemService(LauncherApps.class);
+        this.userManager = context.getSystemService(UserManager.class);
+        this.mySerial = userManager.getSerialNumberForUser(Process.myUserHandle());
+    }
+
+    /**
+     * キャッシュキー: プロファイル・パッケージ名・バージョンの組
+     * アップデートでアイコンが変わった場合は別エントリになる
+     */
+    public static String keyOf(String packageName, long userSerial, long versionCode, int sizePx) {
+        return userSerial + "/" + packageName + "@" + versionCode + "/" + sizePx;
+    }
+
+    public Bitmap getCached(String key) {
+        return CACHE.get(key);
+    }
+
+    /**
+     * アイコンを非同期で読み込む
+     * 戻り値の Future をキャンセルすると、完了後もコールバックは呼ばれない
+     */
+    public Future<?> load(String packageName, long userSerial, long versionCode, int sizePx,
+            Callback callback) {
+        String key = keyOf(packageName, userSerial, versionCode, sizePx);
+        return EXECUTOR.submit(() -> {
+            Bitmap icon = CACHE.get(key);
+            if (icon == null) {
+                icon = decode(packageName, userSerial, sizePx);
+                if (icon == null) {
+                    return;
+                }
+                CACHE.put(key, icon);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Bitmap result = icon;
+            mainHandler.post(() -> callback.onIconLoaded(key, result));
+        });
+    }
+
+    /**
+     * アイコンを読み込んでキャッシュに入れておく（コールバックなし）
+     * 読み込みは呼び出し順に行われるので、表示される行の読み込みより先に呼べばその分早く揃う
+     */
+    public void prefetch(String packageName, long userSerial, long versionCode, int sizePx) {
+        String key = keyOf(packageName, userSerial, versionCode, sizePx);
+        if (CACHE.get(key) != null || !prefetching.add(key)) {
+            return;
+        }
+        EXECUTOR.execute(() -> {
+            try {
+                if (CACHE.get(key) == null) {
+                    Bitmap icon = decode(packageName, userSerial, sizePx);
+                    if (icon != null) {
+                        CACHE.put(key, icon);
+                    }
+                }
+            } finally {
+                prefetching.remove(key);
+            }
+        });
+    }
+
+    private Bitmap decode(String packageName, long userSerial, int sizePx) {
+        Drawable drawable = launcherIcon(packageName, userSerial);
+        if (drawable == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, sizePx, sizePx);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * ランチャーに表示されるアクティビティのアイコン
+     * （アプリ本体のアイコンと異なる場合があるので、一覧と同じアクティビティから取る。
+     * 他のプロファイルのアプリにはプロファイルのバッジが付く）
+     */
+    private Drawable launcherIcon(String packageName, long userSerial) {
+        UserHandle user = userSerial == mySerial
+            ? Process.myUserHandle()
+            : userManager.getUserForSerialNumber(userSerial);
+        if (user == null) {
+            return null;
+        }
+        List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, user);
+        if (activities.isEmpty()) {
+            Log.w(TAG, "Icon not found: " + packageName + " (user " + userSerial + ")");
+            return null;
+        }
+        return activities.get(0).getBadgedIcon(0);
+    }
+}
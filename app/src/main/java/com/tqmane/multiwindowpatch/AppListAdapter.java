@@ -1,33 +1,135 @@
 package com.tqmane.multiwindowpatch;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * アプリ一覧用のRecyclerViewアダプター
+ * 一覧は不変の AppCatalogStore と行番号の配列で受け取り、差分計算はバックグラウンドで行う
+ *
+ * 行番号を比べるには新旧のストアが要るため、要素だけで比べる AsyncListDiffer（ItemCallback）は
+ * 使えない。同じ手順（世代番号で古い結果を捨て、反映後にコールバック）を自前で行う。
  */
 public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHolder> {
     
+    // 差分計算用のスレッド（すべてのアダプターで共有）
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "AppListDiff");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    
     private Context context;
-    private List<AppInfo> apps;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // 表示中の一覧: ストアと、表示する行番号の並び
+    private AppCatalogStore store = AppCatalogStore.EMPTY;
+    private int[] rows = new int[0];
+    private int submitGeneration;
     private OnAppClickListener listener;
+    private AppIconLoader iconLoader;
+    private final int iconSizePx;
     
     public interface OnAppClickListener {
         void onAppClick(AppInfo appInfo);
     }
     
-    public AppListAdapter(Context context, List<AppInfo> apps, OnAppClickListener listener) {
+    public interface OnAppLongClickListener {
+        void onAppLongClick(AppInfo appInfo);
+    }
+    
+    private OnAppLongClickListener longClickListener;
+    
+    public AppListAdapter(Context context, OnAppClickListener listener) {
         this.context = context;
-        this.apps = apps;
         this.listener = listener;
+        this.iconLoader = new AppIconLoader(context);
+        this.iconSizePx = context.getResources().getDimensionPixelSize(R.dimen.app_icon_size);
+        setHasStableIds(true);
+    }
+    
+    /**
+     * 表示する一覧を差し替える（newRows は newStore の行番号の並び）
+     * 差分はバックグラウンドで計算され、変化した行だけが再バインドされる。
+     * 計算中に次の一覧が渡された場合、古い結果は捨てられる。
+     *
+     * @param commitCallback 一覧がアダプターに反映された直後にメインスレッドで呼ばれる
+     *                       （古い結果として捨てられた場合は呼ばれない）
+     */
+    public void submit(AppCatalogStore newStore, int[] newRows, Runnable commitCallback) {
+        int generation = ++submitGeneration;
+        AppCatalogStore oldStore = store;
+        int[] oldRows = rows;
+        
+        if (oldRows.length == 0 || newRows.length == 0) {
+            store = newStore;
+            rows = newRows;
+            notifyDataSetChanged();
+            commitCallback.run();
+            return;
+        }
+        
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldRows.length;
+                }
+                
+                @Override
+                public int getNewListSize() {
+                    return newRows.length;
+                }
+                
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return AppCatalogStore.sameItem(
+                        oldStore, oldRows[oldPosition], newStore, newRows[newPosition]);
+                }
+                
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return AppCatalogStore.sameContents(
+                        oldStore, oldRows[oldPosition], newStore, newRows[newPosition]);
+                }
+            });
+            mainHandler.post(() -> {
+                if (generation == submitGeneration) {
+                    store = newStore;
+                    rows = newRows;
+                    result.dispatchUpdatesTo(this);
+                    commitCallback.run();
+                }
+            });
+        });
+    }
+    
+    /**
+     * 表示される前にアイコンを行と同じ大きさで読み込んでおく（最初に表示されるよく使うアプリ用）
+     */
+    public void prefetchIcons(List<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            iconLoader.prefetch(app.packageName, app.userSerial, app.versionCode, iconSizePx);
+        }
+    }
+    
+    public void setOnAppLongClickListener(OnAppLongClickListener longClickListener) {
+        this.longClickListener = longClickListener;
     }
     
     @Override
@@ -39,32 +141,103 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
     
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        AppInfo app = apps.get(position);
+        AppCatalogStore boundStore = store;
+        int row = rows[position];
         
-        holder.appName.setText(app.appName);
-        holder.packageName.setText(app.packageName);
-        holder.appIcon.setImageDrawable(app.icon);
+        holder.appName.setText(boundStore.appName(row));
+        holder.packageName.setText(boundStore.isWorkProfile(row)
+            ? boundStore.packageName(row) + "（仕事用）"
+            : boundStore.packageName(row));
+        bindIcon(holder, boundStore, row);
         
         // システムアプリの場合は薄く表示
-        float alpha = app.isSystemApp ? 0.6f : 1.0f;
+        float alpha = boundStore.isSystemApp(row) ? 0.6f : 1.0f;
         holder.itemView.setAlpha(alpha);
         
+        // AppInfo はタップされたときにだけ作る
         holder.itemView.setOnClickListener(v -> {
             if (listener != null) {
-                listener.onAppClick(app);
+                listener.onAppClick(boundStore.toAppInfo(row));
+            }
+        });
+        
+        holder.itemView.setOnLongClickListener(v -> {
+            if (longClickListener != null) {
+                longClickListener.onAppLongClick(boundStore.toAppInfo(row));
+                return true;
+            }
+            return false;
+        });
+    }
+    
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // 再利用される行の読み込みは結果が不要になるので破棄
+        holder.cancelIconLoad();
+        holder.appIcon.setImageDrawable(null);
+    }
+    
+    /**
+     * アイコンをキャッシュから表示、なければ行の実サイズで非同期読み込み
+     */
+    private void bindIcon(ViewHolder holder, AppCatalogStore boundStore, int row) {
+        holder.cancelIconLoad();
+        
+        int sizePx = iconSizePx;
+        String packageName = boundStore.packageName(row);
+        long userSerial = boundStore.userSerial(row);
+        long versionCode = boundStore.versionCode(row);
+        String key = AppIconLoader.keyOf(packageName, userSerial, versionCode, sizePx);
+        holder.iconKey = key;
+        
+        Bitmap cached = iconLoader.getCached(key);
+        if (cached != null) {
+            holder.appIcon.setImageBitmap(cached);
+            return;
+        }
+        
+        holder.appIcon.setImageDrawable(null);
+        holder.iconTask = iconLoader.load(packageName, userSerial, versionCode, sizePx, (loadedKey, icon) -> {
+            // 読み込み中に別の行へ再利用されていたら反映しない
+            if (loadedKey.equals(holder.iconKey)) {
+                holder.iconTask = null;
+                holder.appIcon.setImageBitmap(icon);
             }
         });
     }
     
     @Override
     public int getItemCount() {
-        return apps.size();
+        return rows.length;
+    }
+    
+    @Override
+    public long getItemId(int position) {
+        int row = rows[position];
+        return stableIdOf(store.packageName(row), store.userSerial(row));
+    }
+    
+    /**
+     * パッケージ名とプロファイルから64bitの安定IDを求める（FNV-1a）
+     * 並び替えや絞り込みをしても同じアプリは同じIDになる
+     */
+    static long stableIdOf(String packageName, long userSerial) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < packageName.length(); i++) {
+            hash ^= packageName.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= userSerial;
+        hash *= 0x100000001b3L;
+        return hash;
     }
     
     static class ViewHolder extends RecyclerView.ViewHolder {
         ImageView appIcon;
         TextView appName;
         TextView packageName;
+        String iconKey;
+        Future<?> iconTask;
         
         ViewHolder(View itemView) {
             super(itemView);
@@ -72,5 +245,13 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
             appName = itemView.findViewById(R.id.appName);
             packageName = itemView.findViewById(R.id.packageName);
         }
+        
+        void cancelIconLoad() {
+            if (iconTask != null) {
+                iconTask.cancel(true);
+                iconTask = null;
+            }
+            iconKey = null;
+        }
     }
 }
@@ -0,0 +1,137 @@
+package com.tqmane.multiwindowpatch;
+
+import android.app.Activity;
+import android.app.BroadcastOptions;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.util.Locale;
+
+/**
+ * フックの診断画面
+ * system_server の HookMetrics に順序付きブロードキャストで問い合わせ、定期的に表示を更新する
+ * （このアプリ側の起動から表示までの時間と、通知更新の統計も併せて表示する）
+ */
+public class HookDiagnosticsActivity extends AppCompatActivity {
+    
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private TextView metricsText;
+    
+    // 直前の結果（呼び出し頻度を差分で求めるため）
+    private long previousUptimeMs = -1;
+    private long[] previousCalls;
+    
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            requestMetrics();
+            mainHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+    
+    private final BroadcastReceiver resultReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Bundle extras = getResultExtras(false);
+            if (getResultCode() != Activity.RESULT_OK || extras == null) {
+                metricsText.setText("計測結果を取得できません。\n"
+                    + "モジュールが有効になっていないか、まだアクティビティが起動されていません。\n\n"
+                    + appStatsText());
+                return;
+            }
+            showMetrics(extras);
+        }
+    };
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_hook_diagnostics);
+        metricsText = findViewById(R.id.metricsText);
+    }
+    
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mainHandler.post(refreshTask);
+    }
+    
+    @Override
+    protected void onPause() {
+        mainHandler.removeCallbacks(refreshTask);
+        super.onPause();
+    }
+    
+    private void requestMetrics() {
+        Intent intent = new Intent(HookMetrics.ACTION_DUMP);
+        intent.setPackage("android");
+        // system_server は送信元がこのアプリであることを確かめてから応える
+        Bundle options = BroadcastOptions.makeBasic()
+            .setShareIdentityEnabled(true)
+            .toBundle();
+        // 応答がなければ初期値のまま（RESULT_CANCELED）で返ってくる
+        sendOrderedBroadcast(intent, null, options, resultReceiver, mainHandler,
+            Activity.RESULT_CANCELED, null, null);
+    }
+    
+    private void showMetrics(Bundle extras) {
+        long uptimeMs = extras.getLong(HookMetrics.KEY_UPTIME_MS);
+        String[] names = extras.getStringArray(HookMetrics.KEY_NAMES);
+        String[] installed = extras.getStringArray(HookMetrics.KEY_INSTALLED);
+        long[] calls = extras.getLongArray(HookMetrics.KEY_CALLS);
+        long[] p50 = extras.getLongArray(HookMetrics.KEY_P50_NS);
+        long[] p99 = extras.getLongArray(HookMetrics.KEY_P99_NS);
+        if (names == null || installed == null || calls == null || p50 == null || p99 == null) {
+            return;
+        }
+        
+        // system_server が再起動していたら差分を取り直す
+        boolean hasPrevious = previousCalls != null
+            && previousCalls.length == calls.length
+            && uptimeMs > previousUptimeMs;
+        
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            text.append(names[i]).append('\n');
+            text.append("  登録: ").append(installed[i] != null ? installed[i] : "なし").append('\n');
+            text.append(String.format(Locale.ROOT, "  呼び出し: %d 回（平均 %.1f 回/秒",
+                calls[i], calls[i] * 1000.0 / Math.max(1, uptimeMs)));
+            if (hasPrevious) {
+                text.append(String.format(Locale.ROOT, "、直近 %.1f 回/秒",
+                    (calls[i] - previousCalls[i]) * 1000.0 / (uptimeMs - previousUptimeMs)));
+            }
+            text.append("）\n");
+            text.append("  p50: ").append(formatNanos(p50[i]))
+                .append("  p99: ").append(formatNanos(p99[i])).append("\n\n");
+        }
+        text.append(appStatsText());
+        metricsText.setText(text);
+        
+        previousUptimeMs = uptimeMs;
+        previousCalls = calls;
+    }
+    
+    private String appStatsText() {
+        return "起動から表示まで\n  " + MultiWindowLauncher.get(this).latencySummary() + "\n\n"
+            + "通知の更新\n  " + MultiWindowNotificationService.updateSummary() + "\n";
+    }
+    
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+        }
+        if (nanos >= 1_000) {
+            return String.format(Locale.ROOT, "%.1f µs", nanos / 1_000.0);
+        }
+        return nanos + " ns";
+    }
+}
@@ -0,0 +1,72 @@
+package com.tqmane.multiwindowpatch;
+
+import java.lang.reflect.Field;
+
+/**
+ * フックのコールバックで使う ActivityInfo / ApplicationInfo のフィールドアクセサ
+ *
+ * XposedHelpers.setIntField などは呼び出しのたびに「クラス名#フィールド名」の
+ * 文字列を組み立ててマップを引くため、system_server のホットパスでは重い。
+ * フック登録時に一度だけ Field を解決しておき、以降はそれを直接使う。
+ *
+ * Android に依存しないので、benchmark モジュールからも同じクラスを計測する。
+ */
+public final class HookFieldAccessors {
+
+    private final Field resizeMode;
+    private final Field applicationInfo;
+    private final Field flags;
+
+    private HookFieldAccessors(Field resizeMode, Field applicationInfo, Field flags) {
+        this.resizeMode = resizeMode;
+        this.applicationInfo = applicationInfo;
+        this.flags = flags;
+    }
+
+    /**
+     * ActivityInfo クラス（またはそれと同じフィールド構成のクラス）から解決する
+     * ApplicationInfo のクラスは applicationInfo フィールドの型から求める
+     */
+    public static HookFieldAccessors resolve(Class<?> activityInfoClass) throws NoSuchFieldException {
+        Field resizeMode = findField(activityInfoClass, "resizeMode");
+        Field applicationInfo = findField(activityInfoClass, "applicationInfo");
+        Field flags = findField(applicationInfo.getType(), "flags");
+        return new HookFieldAccessors(resizeMode, applicationInfo, flags);
+    }
+
+    public void setResizeMode(Object activityInfo, int mode) throws IllegalAccessException {
+        resizeMode.setInt(activityInfo, mode);
+    }
+
+    public int getResizeMode(Object activityInfo) throws IllegalAccessException {
+        return resizeMode.getInt(activityInfo);
+    }
+
+    public Object getApplicationInfo(Object activityInfo) throws IllegalAccessException {
+        return applicationInfo.get(activityInfo);
+    }
+
+    public int getFlags(Object appInfo) throws IllegalAccessException {
+        return flags.getInt(appInfo);
+    }
+
+    public void setFlags(Object appInfo, int value) throws IllegalAccessException {
+        flags.setInt(appInfo, value);
+    }
+
+    /**
+     * スーパークラスも含めてフィールドを探す
+     */
+    private static Field findField(Class<?> clazz, String name) throws NoSuchFieldException {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // スーパークラスを探す
+            }
+        }
+        throw new NoSuchFieldException(clazz.getName() + "#" + name);
+    }
+}
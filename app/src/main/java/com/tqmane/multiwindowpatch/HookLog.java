@@ -0,0 +1,294 @@
+package com.tqmane.multiwindowpatch;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * フック側のログ窓口
+ *
+ * 呼び出し元ではレベルの判定と固定長の引数の記録だけを行い、
+ * 文字列の組み立てと XposedBridge.log への出力はバックグラウンドスレッドがまとめて行う。
+ * 抑制されたレベルの呼び出しは volatile の読み出し1回で終わる。
+ *
+ * 出力するレベルは実行中に変更できる（android.util.Log と同じプロパティを参照）:
+ *   adb shell setprop log.tag.MultiWindowPatch DEBUG
+ * プロパティは出力するときに読み直すので、変更は次にログを出力した後から反映される。
+ *
+ * バッファはロックのない固定長のリングで、あふれた分は捨てて件数を報告する。
+ * 出力スレッドはリングが空のあいだは時間を区切らずに待ち、次に追加した側が起こす。
+ * 書式の引数は出力時に文字列化されるので、変更されない値を渡すこと。
+ */
+final class HookLog {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    static final int DEBUG = Log.DEBUG;
+    static final int INFO = Log.INFO;
+    static final int WARN = Log.WARN;
+    static final int ERROR = Log.ERROR;
+
+    // リングの大きさ（2のべき乗）
+    private static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    // 出力した後、続けて記録されるログをまとめるために待つ時間と、1回にまとめて出力する最大件数
+    private static final long FLUSH_INTERVAL_MS = 250;
+    private static final int MAX_BATCH = 64;
+
+    // レベル設定（プロパティ）を読み直す間隔
+    private static final long LEVEL_CHECK_INTERVAL_MS = 5000;
+
+    private static final AtomicReferenceArray<Entry> RING = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static final AtomicLong HEAD = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static volatile int minLevel = levelFromProperty();
+    private static volatile Thread flusher;
+    // 出力スレッドが空のリングで待っているか
+    private static volatile boolean idle;
+
+    private HookLog() {}
+
+    /**
+     * 記録された1件（フォーマットは出力スレッドで行う）
+     */
+    private static final class Entry {
+        final int level;
+        final String format;
+        final Object arg0;
+        final Object arg1;
+        final Object arg2;
+        final Throwable error;
+
+        Entry(int level, String format, Object arg0, Object arg1, Object arg2, Throwable error) {
+            this.level = level;
+            this.format = format;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.error = error;
+        }
+
+        String message() {
+            String text = arg0 == null && arg1 == null && arg2 == null
+                ? format
+                : String.format(Locale.ROOT, format, arg0, arg1, arg2);
+            return error != null ? text + ": " + error : text;
+        }
+    }
+
+    static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    /**
+     * 出力するレベルを変更する（次にプロパティを読み直すまで有効）
+     */
+    static void setLevel(int level) {
+        minLevel = level;
+    }
+
+    /**
+     * リングがあふれて捨てたログの件数
+     */
+    static long droppedCount() {
+        return DROPPED.get();
+    }
+
+    static void d(String message) {
+        if (DEBUG >= minLevel) enqueue(DEBUG, message, null, null, null, null);
+    }
+
+    static void d(String format, Object arg0) {
+        if (DEBUG >= minLevel) enqueue(DEBUG, format, arg0, null, null, null);
+    }
+
+    static void d(String format, Object arg0, Object arg1) {
+        if (DEBUG >= minLevel) enqueue(DEBUG, format, arg0, arg1, null, null);
+    }
+
+    static void i(String message) {
+        if (INFO >= minLevel) enqueue(INFO, message, null, null, null, null);
+    }
+
+    static void i(String format, Object arg0) {
+        if (INFO >= minLevel) enqueue(INFO, format, arg0, null, null, null);
+    }
+
+    static void i(String format, Object arg0, Object arg1) {
+        if (INFO >= minLevel) enqueue(INFO, format, arg0, arg1, null, null);
+    }
+
+    static void i(String format, Object arg0, Object arg1, Object arg2) {
+        if (INFO >= minLevel) enqueue(INFO, format, arg0, arg1, arg2, null);
+    }
+
+    static void w(String message) {
+        if (WARN >= minLevel) enqueue(WARN, message, null, null, null, null);
+    }
+
+    static void w(String format, Object arg0) {
+        if (WARN >= minLevel) enqueue(WARN, format, arg0, null, null, null);
+    }
+
+    static void w(String message, Throwable error) {
+        if (WARN >= minLevel) enqueue(WARN, message, null, null, null, error);
+    }
+
+    static void w(String format, Object arg0, Throwable error) {
+        if (WARN >= minLevel) enqueue(WARN, format, arg0, null, null, error);
+    }
+
+    static void e(String message, Throwable error) {
+        if (ERROR >= minLevel) enqueue(ERROR, message, null, null, null, error);
+    }
+
+    static void e(String format, Object arg0, Throwable error) {
+        if (ERROR >= minLevel) enqueue(ERROR, format, arg0, null, null, error);
+    }
+
+    /**
+     * 複数の書き込み側・1つの読み出し側のリングに追加する
+     * 空きがなければ待たずに捨てる
+     */
+    private static void enqueue(int level, String format, Object arg0, Object arg1, Object arg2,
+            Throwable error) {
+        Entry entry = new Entry(level, format, arg0, arg1, arg2, error);
+        while (true) {
+            long tail = TAIL.get();
+            if (tail - HEAD.get() >= CAPACITY) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+            if (TAIL.compareAndSet(tail, tail + 1)) {
+                RING.lazySet((int) tail & MASK, entry);
+                break;
+            }
+        }
+        if (STARTED.compareAndSet(false, true)) {
+            startFlusher();
+        } else if (idle || level >= ERROR) {
+            // 空のリングで待っていれば起こす（出力後にまとめて待っている間はエラーのときだけ起こす）
+            Thread thread = flusher;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private static void startFlusher() {
+        Thread thread = new Thread(HookLog::flushLoop, "MultiWindowPatch-log");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        flusher = thread;
+        thread.start();
+    }
+
+    private static void flushLoop() {
+        StringBuilder batch = new StringBuilder();
+        long reportedDropped = 0;
+        long lastLevelCheck = SystemClock.uptimeMillis();
+        while (true) {
+            boolean wrote = false;
+            while (drain(batch) > 0) {
+                write(batch);
+                wrote = true;
+            }
+
+            long dropped = DROPPED.get();
+            if (dropped != reportedDropped) {
+                batch.append(TAG).append(": ").append(dropped - reportedDropped)
+                    .append(" log entries dropped (").append(dropped).append(" total)");
+                write(batch);
+                reportedDropped = dropped;
+                wrote = true;
+            }
+
+            if (!wrote) {
+                // 待つと知らせてから空であることを確かめ直す（その間に追加した側は idle を見て起こす）
+                idle = true;
+                if (TAIL.get() != HEAD.get()) {
+                    // 書き込み側が格納し終えるところ
+                    idle = false;
+                    Thread.yield();
+                    continue;
+                }
+                LockSupport.park();
+                idle = false;
+                continue;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            if (now - lastLevelCheck >= LEVEL_CHECK_INTERVAL_MS) {
+                minLevel = levelFromProperty();
+                lastLevelCheck = now;
+            }
+            LockSupport.parkNanos(FLUSH_INTERVAL_MS * 1_000_000L);
+        }
+    }
+
+    /**
+     * リングから最大 MAX_BATCH 件を取り出して batch に改行区切りで書く
+     */
+    private static int drain(StringBuilder batch) {
+        long head = HEAD.get();
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int slot = (int) head & MASK;
+            Entry entry = RING.get(slot);
+            if (entry == null) {
+                // 空か、書き込み側がまだ格納していない
+                break;
+            }
+            RING.lazySet(slot, null);
+            head++;
+            HEAD.lazySet(head);
+
+            if (count > 0) {
+                batch.append('\n');
+            }
+            try {
+                batch.append(TAG).append(": ").append(entry.message());
+            } catch (RuntimeException e) {
+                batch.append(TAG).append(": [bad log format] ").append(entry.format);
+            }
+            if (entry.error != null && entry.level >= ERROR) {
+                batch.append('\n').append(Log.getStackTraceString(entry.error));
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Xposed の中では XposedBridge.log、モジュールのアプリ自身では Log に出す
+     */
+    private static void write(StringBuilder batch) {
+        String text = batch.toString();
+        batch.setLength(0);
+        try {
+            XposedBridge.log(text);
+        } catch (NoClassDefFoundError e) {
+            Log.i(TAG, text);
+        }
+    }
+
+    private static int levelFromProperty() {
+        for (int level = Log.VERBOSE; level < Log.ASSERT; level++) {
+            if (Log.isLoggable(TAG, level)) {
+                return level;
+            }
+        }
+        return Log.ASSERT;
+    }
+}
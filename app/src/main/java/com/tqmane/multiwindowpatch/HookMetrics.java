@@ -0,0 +1,137 @@
+package com.tqmane.multiwindowpatch;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * system_server に登録したフックの呼び出し回数とレイテンシの計測
+ *
+ * フックごとの値は HookStats に記録し、ここではその一覧と取り出し口を持つ。
+ *
+ * 結果は順序付きブロードキャスト ACTION_DUMP で取り出せる。応えるのは次の送信元だけ:
+ *   - モジュールのアプリ（BroadcastOptions.setShareIdentityEnabled で送信元を知らせる）
+ *   - DUMP 権限を持つシェル: adb shell am broadcast -a com.tqmane.multiwindowpatch.DUMP_HOOK_METRICS -p android
+ */
+final class HookMetrics {
+
+    static final String ACTION_DUMP = "com.tqmane.multiwindowpatch.DUMP_HOOK_METRICS";
+
+    // 結果の Bundle のキー（フックごとの値は同じ並びの配列）
+    static final String KEY_UPTIME_MS = "uptime_ms";
+    static final String KEY_NAMES = "names";
+    static final String KEY_INSTALLED = "installed";
+    static final String KEY_CALLS = "calls";
+    static final String KEY_P50_NS = "p50_ns";
+    static final String KEY_P99_NS = "p99_ns";
+
+    static final HookStats IS_RESIZEABLE = new HookStats("ActivityInfo.isResizeable");
+    static final HookStats ACTIVITY_RECORD = new HookStats("ActivityRecord.<init>");
+    static final HookStats GENERATE_ACTIVITY_INFO = new HookStats("PackageParser.generateActivityInfo");
+    static final HookStats PARSE_PACKAGE = new HookStats("PackageParser2.parsePackage");
+    static final HookStats TOP_RESUMED_ACTIVITY = new HookStats("ATMS.setLastResumedActivityUncheckLocked");
+
+    private static final HookStats[] ALL = {
+        IS_RESIZEABLE, PARSE_PACKAGE, ACTIVITY_RECORD, GENERATE_ACTIVITY_INFO, TOP_RESUMED_ACTIVITY
+    };
+
+    private static final long START_UPTIME_MS = SystemClock.uptimeMillis();
+    private static final AtomicBoolean RECEIVER_REGISTERED = new AtomicBoolean();
+
+    private HookMetrics() {}
+
+    static boolean isDumpReceiverRegistered() {
+        return RECEIVER_REGISTERED.get();
+    }
+
+    /**
+     * ダンプ要求を受けるレシーバーを system_server に登録する（一度だけ）
+     * フック中は WindowManager のロックを持っていることがあるため、登録はメインスレッドで行う
+     *
+     * 他のアプリに計測結果を渡さず、結果を組み立てる負荷もかけさせないよう、
+     * シェル用は DUMP 権限で、モジュールのアプリ用は送信元のパッケージで受け付けるものを絞る
+     * （どちらのレシーバーも、対象外の送信元には結果を設定しない）。
+     */
+    static void registerDumpReceiver(final Context context) {
+        if (context == null || !RECEIVER_REGISTERED.compareAndSet(false, true)) {
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                IntentFilter filter = new IntentFilter(ACTION_DUMP);
+                context.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        setResult(Activity.RESULT_OK, dump(), toBundle());
+                    }
+                }, filter, Manifest.permission.DUMP, null, Context.RECEIVER_EXPORTED);
+                context.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        // 送信元を知らせていない場合は null（シェルからの要求は上のレシーバーが応える）
+                        if (ResizePolicies.MODULE_PACKAGE.equals(getSentFromPackage())) {
+                            setResult(Activity.RESULT_OK, dump(), toBundle());
+                        }
+                    }
+                }, filter, null, null, Context.RECEIVER_EXPORTED);
+                HookLog.i("Registered hook metrics receiver");
+            } catch (Throwable t) {
+                HookLog.w("Failed to register metrics receiver", t);
+            }
+        });
+    }
+
+    static Bundle toBundle() {
+        String[] names = new String[ALL.length];
+        String[] installed = new String[ALL.length];
+        long[] calls = new long[ALL.length];
+        long[] p50 = new long[ALL.length];
+        long[] p99 = new long[ALL.length];
+        for (int i = 0; i < ALL.length; i++) {
+            names[i] = ALL[i].name;
+            installed[i] = ALL[i].installed();
+            calls[i] = ALL[i].calls();
+            p50[i] = ALL[i].percentile(0.50);
+            p99[i] = ALL[i].percentile(0.99);
+        }
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_UPTIME_MS, SystemClock.uptimeMillis() - START_UPTIME_MS);
+        bundle.putStringArray(KEY_NAMES, names);
+        bundle.putStringArray(KEY_INSTALLED, installed);
+        bundle.putLongArray(KEY_CALLS, calls);
+        bundle.putLongArray(KEY_P50_NS, p50);
+        bundle.putLongArray(KEY_P99_NS, p99);
+        return bundle;
+    }
+
+    /**
+     * シェル向けのテキスト表現
+     */
+    static String dump() {
+        StringBuilder out = new StringBuilder();
+        double seconds = Math.max(1, SystemClock.uptimeMillis() - START_UPTIME_MS) / 1000.0;
+        for (HookStats stats : ALL) {
+            long calls = stats.calls();
+            out.append(String.format(Locale.ROOT,
+                "%s: installed=%s calls=%d rate=%.1f/s p50=%dns p99=%dns%n",
+                stats.name,
+                stats.installed() != null ? stats.installed() : "no",
+                calls,
+                calls / seconds,
+                stats.percentile(0.50),
+                stats.percentile(0.99)));
+        }
+        out.append("log entries dropped: ").append(HookLog.droppedCount()).append('\n');
+        return out.toString();
+    }
+}
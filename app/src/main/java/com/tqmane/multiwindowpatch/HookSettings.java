@@ -0,0 +1,65 @@
+package com.tqmane.multiwindowpatch;
+
+import android.os.SystemClock;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+/**
+ * フックの動作モードの設定（モジュールの SharedPreferences を XSharedPreferences で読む）
+ *
+ * isResizeableFallback は system_server のフック登録時にだけ参照するので、変更は端末の再起動後に反映される。
+ * systemForegroundTracking は参照のたびに設定ファイルの更新を確認するので、
+ * system_server とアプリのプロセスが同じ値に従う（確認は RELOAD_CHECK_INTERVAL_MS に1回まで）。
+ */
+final class HookSettings {
+
+    static final String PREFS = "hook_settings";
+
+    /**
+     * true なら前面アプリの検出を system_server の1か所で行い、
+     * アプリのプロセスにはライフサイクルのフックを入れない
+     */
+    static final String KEY_SYSTEM_FOREGROUND_TRACKING = "system_foreground_tracking";
+
+    /**
+     * true ならパッケージの解析時の書き換えに加えて ActivityInfo.isResizeable もフックする
+     * （解析時のフックを登録できなかった場合は設定に関係なくフックする）
+     */
+    static final String KEY_IS_RESIZEABLE_FALLBACK = "is_resizeable_fallback";
+
+    private static final long RELOAD_CHECK_INTERVAL_MS = 2000;
+
+    private static XSharedPreferences prefs;
+    private static volatile long lastReloadCheck;
+
+    private HookSettings() {}
+
+    static boolean systemForegroundTracking() {
+        reloadIfChanged();
+        return prefs().getBoolean(KEY_SYSTEM_FOREGROUND_TRACKING, false);
+    }
+
+    static boolean isResizeableFallback() {
+        return prefs().getBoolean(KEY_IS_RESIZEABLE_FALLBACK, false);
+    }
+
+    private static void reloadIfChanged() {
+        long now = SystemClock.uptimeMillis();
+        if (now - lastReloadCheck < RELOAD_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastReloadCheck = now;
+        synchronized (HookSettings.class) {
+            if (prefs != null && prefs.hasFileChanged()) {
+                prefs.reload();
+            }
+        }
+    }
+
+    private static synchronized XSharedPreferences prefs() {
+        if (prefs == null) {
+            prefs = new XSharedPreferences(ResizePolicies.MODULE_PACKAGE, PREFS);
+        }
+        return prefs;
+    }
+}
@@ -0,0 +1,250 @@
+package com.tqmane.multiwindowpatch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * フック対象のコンストラクタ・メソッドを引数の型の形から探すリゾルバ
+ *
+ * 候補のシグネチャを順に findAndHook して例外を握りつぶす代わりに、
+ * 宣言されたメンバを一度だけ走査して条件に合うものを選ぶ。
+ * 結果はビルドの fingerprint ごとにファイルへ保存し、次回以降の起動では走査も省く。
+ * 見つからなかったことも保存するので、そのビルドに無いクラス・メンバを毎回探し直すこともない。
+ * ファイルは一時ファイルに書いてから置き換えるので、書き込み中に落ちても壊れた内容は残らない。
+ */
+final class HookSignatureResolver {
+
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    /** このビルドには見つからなかったことを表す保存値 */
+    private static final String MISSING = "-";
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+    static {
+        PRIMITIVES.put("boolean", boolean.class);
+        PRIMITIVES.put("byte", byte.class);
+        PRIMITIVES.put("char", char.class);
+        PRIMITIVES.put("short", short.class);
+        PRIMITIVES.put("int", int.class);
+        PRIMITIVES.put("long", long.class);
+        PRIMITIVES.put("float", float.class);
+        PRIMITIVES.put("double", double.class);
+    }
+
+    /**
+     * 引数の型の並びを調べ、対象なら注目する引数の位置（対象外なら -1）を返す
+     */
+    interface Matcher {
+        int match(Class<?>[] parameterTypes);
+    }
+
+    /**
+     * 解決結果: フックするメンバと、Matcher が返した引数の位置
+     */
+    static final class Resolved {
+        final Member member;
+        final int argIndex;
+        final boolean fromCache;
+
+        Resolved(Member member, int argIndex, boolean fromCache) {
+            this.member = member;
+            this.argIndex = argIndex;
+            this.fromCache = fromCache;
+        }
+    }
+
+    private final File cacheFile;
+    private final String fingerprint;
+    private final ClassLoader classLoader;
+    private final Properties cache = new Properties();
+    private boolean dirty;
+
+    HookSignatureResolver(File cacheFile, String fingerprint, ClassLoader classLoader) {
+        this.cacheFile = cacheFile;
+        this.fingerprint = fingerprint;
+        this.classLoader = classLoader;
+        load();
+    }
+
+    /**
+     * 条件に合うコンストラクタを探す。見つからなければ null
+     */
+    Resolved constructor(String key, Class<?> clazz, Matcher matcher) {
+        if (isMissing(key)) {
+            return null;
+        }
+        Resolved cached = fromCache(key, clazz, null);
+        if (cached != null) {
+            return cached;
+        }
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            int index = matcher.match(constructor.getParameterTypes());
+            if (index >= 0) {
+                remember(key, constructor.getParameterTypes(), index);
+                return new Resolved(constructor, index, false);
+            }
+        }
+        rememberMissing(key);
+        return null;
+    }
+
+    /**
+     * 条件に合う名前 name のメソッドを探す。見つからなければ null
+     */
+    Resolved method(String key, Class<?> clazz, String name, Matcher matcher) {
+        if (isMissing(key)) {
+            return null;
+        }
+        Resolved cached = fromCache(key, clazz, name);
+        if (cached != null) {
+            return cached;
+        }
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (!method.getName().equals(name)) {
+                continue;
+            }
+            int index = matcher.match(method.getParameterTypes());
+            if (index >= 0) {
+                remember(key, method.getParameterTypes(), index);
+                return new Resolved(method, index, false);
+            }
+        }
+        rememberMissing(key);
+        return null;
+    }
+
+    /**
+     * クラス名で指定する版。そのビルドにクラスが無ければ null
+     */
+    Resolved method(String key, String className, String name, Matcher matcher) {
+        if (isMissing(key)) {
+            return null;
+        }
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            rememberMissing(key);
+            return null;
+        }
+        return method(key, clazz, name, matcher);
+    }
+
+    /**
+     * 新しく解決した結果があればキャッシュファイルへ書き出す
+     */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        cache.setProperty(KEY_FINGERPRINT, fingerprint);
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                cache.store(out, null);
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("rename to " + cacheFile + " failed");
+            }
+            dirty = false;
+        } catch (IOException e) {
+            HookLog.w("Failed to write hook signature cache", e);
+            tempFile.delete();
+        }
+    }
+
+    private void load() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            cache.load(in);
+        } catch (IOException e) {
+            HookLog.w("Failed to read hook signature cache", e);
+        }
+        // 別のビルドで保存された結果は使わない
+        if (!fingerprint.equals(cache.getProperty(KEY_FINGERPRINT))) {
+            cache.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * 保存形式: "型名,型名,...|引数の位置"
+     */
+    private void remember(String key, Class<?>[] parameterTypes, int index) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(parameterTypes[i].getName());
+        }
+        value.append('|').append(index);
+        cache.setProperty(key, value.toString());
+        dirty = true;
+    }
+
+    private boolean isMissing(String key) {
+        return MISSING.equals(cache.getProperty(key));
+    }
+
+    private void rememberMissing(String key) {
+        cache.setProperty(key, MISSING);
+        dirty = true;
+    }
+
+    private Resolved fromCache(String key, Class<?> clazz, String methodName) {
+        String value = cache.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            int separator = value.lastIndexOf('|');
+            int index = Integer.parseInt(value.substring(separator + 1));
+            String types = value.substring(0, separator);
+            String[] names = types.isEmpty() ? new String[0] : types.split(",");
+            Class<?>[] parameterTypes = new Class<?>[names.length];
+            for (int i = 0; i < names.length; i++) {
+                parameterTypes[i] = typeOf(names[i]);
+            }
+            Member member = methodName == null
+                ? clazz.getDeclaredConstructor(parameterTypes)
+                : clazz.getDeclaredMethod(methodName, parameterTypes);
+            return new Resolved(member, index, true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 内容が古いか壊れている。走査し直して上書きする
+            cache.remove(key);
+            dirty = true;
+            return null;
+        }
+    }
+
+    private Class<?> typeOf(String name) throws ClassNotFoundException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        return primitive != null ? primitive : Class.forName(name, false, classLoader);
+    }
+
+    /**
+     * 型名で引数の型を比較するための補助
+     */
+    static int indexOfType(Class<?>[] parameterTypes, String typeName) {
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (parameterTypes[i].getName().equals(typeName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,97 @@
+package com.tqmane.multiwindowpatch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 1つのフックの呼び出し回数とレイテンシ
+ *
+ * 記録はロックもメモリ確保もしない。スレッドごとにストライプを分けた
+ * 対数バケットのヒストグラムへ加算し、回数はその合計として求める。
+ * Android に依存しないので、benchmark モジュールのリプレイからも同じクラスを使う。
+ */
+final class HookStats {
+
+    // 2のべき乗ごとに4分割したバケット（ナノ秒）
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    private static final int STRIPES = 8;
+
+    final String name;
+    private final AtomicLongArray histogram = new AtomicLongArray(STRIPES * BUCKETS);
+    private volatile String installed;
+
+    HookStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * フックのコールバックにかかった時間を記録
+     */
+    void record(long nanos) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        histogram.incrementAndGet(stripe * BUCKETS + bucketOf(nanos));
+    }
+
+    /**
+     * 登録できたフックの内容（シグネチャやパターン）を記録
+     */
+    void markInstalled(String description) {
+        installed = description;
+    }
+
+    String installed() {
+        return installed;
+    }
+
+    long calls() {
+        long total = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            total += histogram.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * 分位点（0〜1）のおおよその値をナノ秒で返す
+     */
+    long percentile(double quantile) {
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            long count = histogram.get(i);
+            merged[i % BUCKETS] += count;
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += merged[bucket];
+            if (seen >= rank) {
+                return valueOf(bucket);
+            }
+        }
+        return valueOf(BUCKETS - 1);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return msb * SUB_BUCKETS + sub;
+    }
+
+    static long valueOf(int bucket) {
+        int msb = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        if (msb < SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        return (long) (SUB_BUCKETS | sub) << (msb - SUB_BUCKET_BITS);
+    }
+}
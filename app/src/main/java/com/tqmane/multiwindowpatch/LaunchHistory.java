@@ -0,0 +1,152 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * マルチウィンドウで起動したアプリの履歴（LaunchFrecency）の保存先
+ *
+ * 一覧の画面と通知からの起動の両方が記録するので、プロセスで1つのインスタンスを共有する。
+ * 読み込みと書き込みはどちらも専用のスレッドで行う。読み込みが終わるまでは空の表を返し、
+ * その間の起動の記録は読み込みの後に順に反映される。
+ * get・record・whenLoaded はメインスレッドから呼ぶ。
+ */
+final class LaunchHistory {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    private static final String FILE_NAME = "launch_history.bin";
+    private static final int MAGIC = 0x4D57504C; // "MWPL"
+    private static final int FORMAT_VERSION = 1;
+
+    private static LaunchHistory instance;
+
+    private final AtomicFile file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "LaunchHistory");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 不変なので、そのまま他のスレッド（絞り込みのワーカーなど）へ渡せる。
+    // 書き換えるのは書き込み用のスレッドだけ
+    private volatile LaunchFrecency current = LaunchFrecency.EMPTY;
+
+    // 読み込みの完了（メインスレッドからのみ触る）
+    private boolean loaded;
+    private final List<Runnable> loadedCallbacks = new ArrayList<>();
+
+    private LaunchHistory(File dir) {
+        this.file = new AtomicFile(new File(dir, FILE_NAME));
+        writer.execute(() -> {
+            current = read(file);
+            mainHandler.post(this::onLoaded);
+        });
+    }
+
+    static LaunchHistory get(Context context) {
+        if (instance == null) {
+            instance = new LaunchHistory(context.getApplicationContext().getFilesDir());
+        }
+        return instance;
+    }
+
+    /**
+     * 現在の表（読み込みが終わるまでは空）
+     */
+    LaunchFrecency current() {
+        return current;
+    }
+
+    /**
+     * 読み込みが終わったらメインスレッドで callback を呼ぶ（終わっていれば直ちに呼ぶ）
+     */
+    void whenLoaded(Runnable callback) {
+        if (loaded) {
+            callback.run();
+        } else {
+            loadedCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * 起動を記録する（key は AppInfo.key）
+     * 表の更新は書き込み用のスレッドで、読み込み済みの表に対して行う。
+     * onSaved は書き込みが終わった後に書き込み用のスレッドで呼ばれる（null 可）
+     */
+    void record(String key, Runnable onSaved) {
+        long nowMillis = System.currentTimeMillis();
+        writer.execute(() -> {
+            LaunchFrecency updated = current.withLaunch(key, nowMillis);
+            current = updated;
+            write(file, updated);
+            if (onSaved != null) {
+                onSaved.run();
+            }
+        });
+    }
+
+    private void onLoaded() {
+        loaded = true;
+        for (Runnable callback : loadedCallbacks) {
+            callback.run();
+        }
+        loadedCallbacks.clear();
+    }
+
+    private static LaunchFrecency read(AtomicFile file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return LaunchFrecency.EMPTY;
+            }
+            return LaunchFrecency.read(in);
+        } catch (FileNotFoundException e) {
+            // 初回
+            return LaunchFrecency.EMPTY;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable launch history: " + e.getMessage());
+            file.delete();
+            return LaunchFrecency.EMPTY;
+        }
+    }
+
+    /**
+     * 履歴を書き込む（途中で失敗しても以前の内容は壊れない）
+     */
+    private static void write(AtomicFile file, LaunchFrecency frecency) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            frecency.writeTo(out);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write launch history: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
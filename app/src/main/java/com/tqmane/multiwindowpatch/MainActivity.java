@@ -1,15 +1,21 @@
 package com.tqmane.multiwindowpatch;
 
-import android.app.ActivityOptions;
+import android.app.AlertDialog;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
+import android.content.SharedPreferences;
+import android.content.pm.LauncherApps;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.UserHandle;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.Button;
 import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -18,7 +24,9 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * メインアクティビティ
@@ -28,11 +36,61 @@ public class MainActivity extends AppCompatActivity {
     
     private static final String TAG = "MultiWindowPatch";
     
+    private static final int MENU_DIAGNOSTICS = 1;
+    private static final int MENU_SYSTEM_FOREGROUND_TRACKING = 2;
+    private static final int MENU_IS_RESIZEABLE_FALLBACK = 3;
+    private static final int MENU_SORT_BY_USAGE = 4;
+    
+    private static final String KEY_SORT_BY_USAGE = "sort_by_usage";
+    // 先に解決してアイコンを先読みするよく使うアプリの数（最初の画面に収まる程度）
+    private static final int PRIORITY_APPS = 12;
+    
     private RecyclerView recyclerView;
     private EditText searchBox;
     private AppListAdapter adapter;
-    private List<AppInfo> allApps;
-    private List<AppInfo> filteredApps;
+    private AppCatalogStore catalog = AppCatalogStore.EMPTY;
+    private AppFilter appFilter;
+    private AppCatalogLoader catalogLoader;
+    private LinearLayout workspaceBar;
+    private SectionIndexBar sectionIndexBar;
+    private AppSectionIndex sectionIndex = AppSectionIndex.EMPTY;
+    private final List<Workspace> workspaces = new ArrayList<>();
+    private LaunchHistory launchHistory;
+    private boolean sortByUsage;
+    // アイコンをまだ先読みしていないよく使うアプリ（AppInfo.key）
+    private final Set<String> prefetchKeys = new HashSet<>();
+    
+    // 仕事用プロファイルを含むすべてのプロファイルのパッケージ変更を受け取る
+    private final LauncherApps.Callback packageChangeCallback = new LauncherApps.Callback() {
+        @Override
+        public void onPackageRemoved(String packageName, UserHandle user) {
+            refreshPackage(packageName);
+        }
+        
+        @Override
+        public void onPackageAdded(String packageName, UserHandle user) {
+            refreshPackage(packageName);
+        }
+        
+        @Override
+        public void onPackageChanged(String packageName, UserHandle user) {
+            refreshPackage(packageName);
+        }
+        
+        @Override
+        public void onPackagesAvailable(String[] packageNames, UserHandle user, boolean replacing) {
+            for (String packageName : packageNames) {
+                refreshPackage(packageName);
+            }
+        }
+        
+        @Override
+        public void onPackagesUnavailable(String[] packageNames, UserHandle user, boolean replacing) {
+            for (String packageName : packageNames) {
+                refreshPackage(packageName);
+            }
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -41,16 +99,28 @@ public class MainActivity extends AppCompatActivity {
         
         recyclerView = findViewById(R.id.recyclerView);
         searchBox = findViewById(R.id.searchBox);
+        workspaceBar = findViewById(R.id.workspaceBar);
+        sectionIndexBar = findViewById(R.id.sectionIndexBar);
         
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         
-        // アプリ一覧を読み込み
-        loadInstalledApps();
+        // 見出しをなぞるとその先頭へ移動（位置は一覧の更新時に計算済み）
+        sectionIndexBar.setOnSectionSelectedListener(section ->
+            layoutManager.scrollToPositionWithOffset(sectionIndex.getPositionForSection(section), 0));
         
-        // アダプターをセット
-        adapter = new AppListAdapter(this, filteredApps, this::launchAppInMultiWindow);
+        // アダプターをセット（中身は読み込み完了分から順に追加される）
+        adapter = new AppListAdapter(this, this::launchAppInMultiWindow);
+        adapter.setOnAppLongClickListener(this::showResizePolicyDialog);
         recyclerView.setAdapter(adapter);
         
+        // 絞り込みはワーカースレッドで行い、最新の入力の結果だけを表示
+        appFilter = new AppFilter(AppFilter.DEFAULT_DEBOUNCE_MS, this::showApps);
+        
+        // よく使う順の場合は起動頻度の表で並べ替える（表はバックグラウンドで読み込まれる）
+        launchHistory = LaunchHistory.get(this);
+        sortByUsage = getPreferences(MODE_PRIVATE).getBoolean(KEY_SORT_BY_USAGE, false);
+        
         // 検索機能
         searchBox.addTextChangedListener(new TextWatcher() {
             @Override
@@ -58,96 +128,379 @@ public class MainActivity extends AppCompatActivity {
             
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                filterApps(s.toString());
+                appFilter.filter(s.toString());
             }
             
             @Override
             public void afterTextChanged(Editable s) {}
         });
+        
+        // 保存済みのワークスペースを表示
+        workspaces.addAll(Workspace.readAll(getFilesDir()));
+        showWorkspaces();
+        
+        // アプリ一覧をバックグラウンドで読み込み
+        // よく使う順の場合は、上位のアプリを先に解決できるよう履歴の読み込みを待ってから始める
+        if (sortByUsage) {
+            launchHistory.whenLoaded(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                appFilter.setRanking(launchHistory.current(), searchBox.getText().toString());
+                loadInstalledApps();
+            });
+        } else {
+            loadInstalledApps();
+        }
+    }
+    
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_DIAGNOSTICS, Menu.NONE, "フックの診断");
+        menu.add(Menu.NONE, MENU_SYSTEM_FOREGROUND_TRACKING, Menu.NONE, "前面アプリをシステム側で検出")
+            .setCheckable(true)
+            .setChecked(moduleSharedPrefs(HookSettings.PREFS)
+                .getBoolean(HookSettings.KEY_SYSTEM_FOREGROUND_TRACKING, false));
+        menu.add(Menu.NONE, MENU_IS_RESIZEABLE_FALLBACK, Menu.NONE, "isResizeable フックを併用")
+            .setCheckable(true)
+            .setChecked(moduleSharedPrefs(HookSettings.PREFS)
+                .getBoolean(HookSettings.KEY_IS_RESIZEABLE_FALLBACK, false));
+        menu.add(Menu.NONE, MENU_SORT_BY_USAGE, Menu.NONE, "よく使う順に並べる")
+            .setCheckable(true)
+            .setChecked(sortByUsage);
+        return true;
+    }
+    
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_DIAGNOSTICS) {
+            startActivity(new Intent(this, HookDiagnosticsActivity.class));
+            return true;
+        }
+        if (item.getItemId() == MENU_SYSTEM_FOREGROUND_TRACKING) {
+            // system_server の1か所で検出し、アプリごとのフックを使わないモード
+            // 数秒で反映されるが、無効にする前から動いているアプリは次に起動したときから通知される
+            toggleHookSetting(item, HookSettings.KEY_SYSTEM_FOREGROUND_TRACKING,
+                "起動中のアプリはアプリの再起動後に反映されます");
+            return true;
+        }
+        if (item.getItemId() == MENU_IS_RESIZEABLE_FALLBACK) {
+            // 解析時の書き換えが効かない ROM 向けに、呼び出しごとの判定もフックする
+            toggleHookSetting(item, HookSettings.KEY_IS_RESIZEABLE_FALLBACK,
+                "端末の再起動後に反映されます");
+            return true;
+        }
+        if (item.getItemId() == MENU_SORT_BY_USAGE) {
+            sortByUsage = !item.isChecked();
+            item.setChecked(sortByUsage);
+            getPreferences(MODE_PRIVATE).edit()
+                .putBoolean(KEY_SORT_BY_USAGE, sortByUsage)
+                .apply();
+            appFilter.setRanking(sortByUsage ? launchHistory.current() : null,
+                searchBox.getText().toString());
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+    
+    /**
+     * チェック可能なメニュー項目に対応するフックの設定を切り替え、いつ反映されるかを表示する
+     */
+    private void toggleHookSetting(MenuItem item, String key, String message) {
+        boolean enabled = !item.isChecked();
+        item.setChecked(enabled);
+        moduleSharedPrefs(HookSettings.PREFS).edit()
+            .putBoolean(key, enabled)
+            .apply();
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+    }
+    
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 通知などから起動した分も反映する（表が変わっていなければ何もしない）
+        if (sortByUsage) {
+            appFilter.setRanking(launchHistory.current(), searchBox.getText().toString());
+        }
+    }
+    
+    @Override
+    protected void onDestroy() {
+        if (catalogLoader != null) {
+            getSystemService(LauncherApps.class).unregisterCallback(packageChangeCallback);
+            catalogLoader.cancel();
+            catalogLoader = null;
+        }
+        appFilter.cancel();
+        super.onDestroy();
     }
     
     /**
      * インストール済みアプリを読み込む
+     * 解決済みのアプリはバッチごとに一覧へ反映される
+     * よく使う順の場合は、上位のアプリを先に解決してアイコンも先読みする
      */
     private void loadInstalledApps() {
-        PackageManager pm = getPackageManager();
-        
-        Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        List<String> priorityKeys = sortByUsage
+            ? launchHistory.current().topKeys(PRIORITY_APPS, System.currentTimeMillis())
+            : Collections.emptyList();
+        prefetchKeys.addAll(priorityKeys);
         
-        List<ResolveInfo> resolveInfos = pm.queryIntentActivities(mainIntent, 0);
-        allApps = new ArrayList<>();
-        
-        for (ResolveInfo resolveInfo : resolveInfos) {
-            String packageName = resolveInfo.activityInfo.packageName;
-            String appName = resolveInfo.loadLabel(pm).toString();
+        catalogLoader = new AppCatalogLoader(this, priorityKeys, new AppCatalogLoader.Callback() {
+            @Override
+            public void onAppsLoaded(List<AppInfo> batch) {
+                prefetchPriorityIcons(batch);
+                // 同じパッケージは新しい情報で置き換える（絞り込みのワーカーで新しい行だけ並び替えてマージ）
+                appFilter.updateCatalog(batch, Collections.emptyList(), searchBox.getText().toString());
+            }
             
-            // システムアプリや自分自身を除外
-            if (packageName.equals(getPackageName())) {
-                continue;
+            @Override
+            public void onAppsRemoved(List<String> keys) {
+                appFilter.updateCatalog(Collections.emptyList(), keys, searchBox.getText().toString());
             }
             
-            try {
-                ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
-                allApps.add(new AppInfo(
-                    packageName,
-                    appName,
-                    resolveInfo.loadIcon(pm),
-                    (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0
-                ));
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.w(TAG, "Package not found: " + packageName);
+            @Override
+            public void onLoadFinished() {
+                Log.i(TAG, "App catalog loaded");
+            }
+        });
+        catalogLoader.start();
+        
+        // 起動中のインストール・削除は差分だけ反映
+        getSystemService(LauncherApps.class).registerCallback(packageChangeCallback);
+    }
+    
+    /**
+     * バッチに含まれるよく使うアプリのアイコンを、行が表示される前に読み込み始める
+     */
+    private void prefetchPriorityIcons(List<AppInfo> batch) {
+        if (prefetchKeys.isEmpty()) {
+            return;
+        }
+        List<AppInfo> apps = new ArrayList<>();
+        for (AppInfo app : batch) {
+            if (prefetchKeys.remove(app.key())) {
+                apps.add(app);
             }
         }
+        adapter.prefetchIcons(apps);
+    }
+    
+    private void refreshPackage(String packageName) {
+        if (catalogLoader != null) {
+            catalogLoader.refresh(packageName);
+        }
+    }
+    
+    /**
+     * 絞り込み結果を表示し、見出しの索引を作り直す
+     * 先頭のよく使うアプリは「★」の見出しにまとめる
+     * 索引は一覧が実際に差し替わってから作る（それまでは表示中の一覧の位置を指したままにする）
+     */
+    private void showApps(AppCatalogStore store, int[] rows, int frequentCount) {
+        // 絞り込みのワーカーで変更を反映し終えたストア（ワークスペースの作成などで使う）
+        catalog = store;
+        adapter.submit(store, rows, () -> {
+            sectionIndex = AppSectionIndex.build(store, rows, frequentCount, "★");
+            sectionIndexBar.setSections(sectionIndex.getSections());
+        });
+    }
+    
+    /**
+     * ワークスペースのボタンを並べる
+     * 起動インテントとオプションはここで解決しておき、タップ時はそのまま起動する
+     */
+    private void showWorkspaces() {
+        workspaceBar.removeAllViews();
+        MultiWindowLauncher launcher = MultiWindowLauncher.get(this);
         
-        // アプリ名でソート
-        Collections.sort(allApps, (a, b) -> a.appName.compareToIgnoreCase(b.appName));
+        for (Workspace workspace : workspaces) {
+            MultiWindowLauncher.PreparedLaunch prepared = launcher.prepare(workspace);
+            Button button = new Button(this);
+            button.setText(workspace.name);
+            button.setAllCaps(false);
+            button.setOnClickListener(v -> launchWorkspace(prepared));
+            button.setOnLongClickListener(v -> {
+                confirmDeleteWorkspace(workspace);
+                return true;
+            });
+            workspaceBar.addView(button);
+        }
         
-        filteredApps = new ArrayList<>(allApps);
+        Button addButton = new Button(this);
+        addButton.setText("+ ワークスペース");
+        addButton.setAllCaps(false);
+        addButton.setOnClickListener(v -> showCreateWorkspaceDialog());
+        workspaceBar.addView(addButton);
+    }
+    
+    private void launchWorkspace(MultiWindowLauncher.PreparedLaunch prepared) {
+        long requestUptimeMs = SystemClock.uptimeMillis();
+        try {
+            int launched = MultiWindowLauncher.get(this).launch(prepared, requestUptimeMs);
+            if (launched == 0) {
+                Toast.makeText(this, "アプリを起動できません", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            
+            Toast.makeText(this, 
+                prepared.workspace.name + " の " + launched + " 個のアプリを起動しました", 
+                Toast.LENGTH_SHORT).show();
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to launch workspace: " + e.getMessage());
+            Toast.makeText(this, "起動に失敗しました: " + e.getMessage(), 
+                Toast.LENGTH_SHORT).show();
+        }
     }
     
     /**
-     * アプリをフィルタリング
+     * アプリを選んでワークスペースを作成する
+     * 表示位置は現在の画面を等分して割り当てる
+     * （ワークスペースは自分のプロファイルのアプリだけを対象にする）
      */
-    private void filterApps(String query) {
-        filteredApps.clear();
+    private void showCreateWorkspaceDialog() {
+        AppCatalogStore apps = catalog;
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < apps.size(); row++) {
+            if (!apps.isWorkProfile(row)) {
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            Toast.makeText(this, "アプリ一覧を読み込み中です", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] names = new String[rows.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = apps.appName(rows.get(i));
+        }
+        List<AppInfo> selected = new ArrayList<>();
         
-        if (query.isEmpty()) {
-            filteredApps.addAll(allApps);
-        } else {
-            String lowerQuery = query.toLowerCase();
-            for (AppInfo app : allApps) {
-                if (app.appName.toLowerCase().contains(lowerQuery) ||
-                    app.packageName.toLowerCase().contains(lowerQuery)) {
-                    filteredApps.add(app);
+        new AlertDialog.Builder(this)
+            .setTitle(Workspace.MIN_APPS + "〜" + Workspace.MAX_APPS + " 個のアプリを選択")
+            .setMultiChoiceItems(names, null, (dialog, which, isChecked) -> {
+                int row = rows.get(which);
+                String packageName = apps.packageName(row);
+                if (isChecked) {
+                    selected.add(apps.toAppInfo(row));
+                } else {
+                    selected.removeIf(app -> app.packageName.equals(packageName));
+                }
+            })
+            .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                if (selected.size() < Workspace.MIN_APPS || selected.size() > Workspace.MAX_APPS) {
+                    Toast.makeText(this, 
+                        Workspace.MIN_APPS + "〜" + Workspace.MAX_APPS + " 個選択してください", 
+                        Toast.LENGTH_SHORT).show();
+                    return;
                 }
+                showNameWorkspaceDialog(selected);
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+    
+    private void showNameWorkspaceDialog(List<AppInfo> selected) {
+        List<String> packageNames = new ArrayList<>();
+        StringBuilder defaultName = new StringBuilder();
+        for (AppInfo app : selected) {
+            packageNames.add(app.packageName);
+            if (defaultName.length() > 0) {
+                defaultName.append(" + ");
             }
+            defaultName.append(app.appName);
         }
         
-        adapter.notifyDataSetChanged();
+        EditText nameInput = new EditText(this);
+        nameInput.setSingleLine(true);
+        nameInput.setText(defaultName);
+        nameInput.selectAll();
+        
+        new AlertDialog.Builder(this)
+            .setTitle("ワークスペースの名前")
+            .setView(nameInput)
+            .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                String name = nameInput.getText().toString().trim();
+                Rect screen = getWindowManager().getCurrentWindowMetrics().getBounds();
+                workspaces.add(Workspace.splitEvenly(
+                    name.isEmpty() ? defaultName.toString() : name, packageNames, screen));
+                Workspace.writeAll(getFilesDir(), workspaces);
+                showWorkspaces();
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+    
+    private void confirmDeleteWorkspace(Workspace workspace) {
+        new AlertDialog.Builder(this)
+            .setTitle(workspace.name)
+            .setMessage("このワークスペースを削除しますか？")
+            .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                workspaces.remove(workspace);
+                Workspace.writeAll(getFilesDir(), workspaces);
+                showWorkspaces();
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+    
+    /**
+     * アプリごとのリサイズポリシーを選択するダイアログ
+     * 設定は system_server 側のフックが次のアクティビティ起動時に読み込む
+     */
+    private void showResizePolicyDialog(AppInfo appInfo) {
+        SharedPreferences prefs = moduleSharedPrefs(ResizePolicies.RESIZE_POLICY_PREFS);
+        int current = prefs.getInt(appInfo.packageName, ResizePolicyTable.POLICY_FORCE_RESIZEABLE);
+        
+        // 並びは ResizePolicyTable.POLICY_* の値と一致させる
+        String[] items = {
+            "強制的にリサイズ可能（既定）",
+            "アプリの設定のまま",
+            "強制的にリサイズ不可"
+        };
+        
+        new AlertDialog.Builder(this)
+            .setTitle(appInfo.appName)
+            .setSingleChoiceItems(items, current, (dialog, which) -> {
+                if (which == ResizePolicyTable.POLICY_FORCE_RESIZEABLE) {
+                    prefs.edit().remove(appInfo.packageName).apply();
+                } else {
+                    prefs.edit().putInt(appInfo.packageName, which).apply();
+                }
+                dialog.dismiss();
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+    
+    /**
+     * フック側（system_server や各アプリ）から XSharedPreferences で読めるよう world-readable で開く
+     */
+    @SuppressWarnings("deprecation")
+    private SharedPreferences moduleSharedPrefs(String name) {
+        try {
+            return getSharedPreferences(name, MODE_WORLD_READABLE);
+        } catch (SecurityException e) {
+            // LSPosed 以外では許可されないため、通常のモードで保存する
+            Log.w(TAG, "World-readable prefs unavailable: " + e.getMessage());
+            return getSharedPreferences(name, MODE_PRIVATE);
+        }
     }
     
     /**
      * アプリをマルチウィンドウモードで起動
      */
     private void launchAppInMultiWindow(AppInfo appInfo) {
+        long requestUptimeMs = SystemClock.uptimeMillis();
         try {
-            PackageManager pm = getPackageManager();
-            Intent launchIntent = pm.getLaunchIntentForPackage(appInfo.packageName);
-            
-            if (launchIntent == null) {
+            if (!MultiWindowLauncher.get(this).launch(
+                    appInfo.packageName, appInfo.userSerial, requestUptimeMs)) {
                 Toast.makeText(this, "アプリを起動できません", Toast.LENGTH_SHORT).show();
                 return;
             }
-            
-            // Android 15+ でマルチウィンドウモードで起動
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_MULTIPLE_TASK);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_LAUNCH_ADJACENT);
-            
-            ActivityOptions options = ActivityOptions.makeBasic();
-            options.setLaunchBounds(null);
-            startActivity(launchIntent, options.toBundle());
+            // 表示の並びは次に一覧へ戻ったとき（onResume）に反映する
+            launchHistory.record(appInfo.key(), null);
             
             Toast.makeText(this, 
                 appInfo.appName + " をマルチウィンドウで起動しました", 
@@ -159,5 +512,4 @@ public class MainActivity extends AppCompatActivity {
                 Toast.LENGTH_SHORT).show();
         }
     }
-    }
 }
@@ -3,8 +3,12 @@ package com.tqmane.multiwindowpatch;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
+import android.os.Process;
 
+import java.io.File;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import de.robv.android.xposed.IXposedHookLoadPackage;
@@ -21,7 +25,8 @@ import de.robv.android.xposed.callbacks.XC_LoadPackage.LoadPackageParam;
  */
 public class MainHook implements IXposedHookLoadPackage {
 
-    private static final String TAG = "MultiWindowPatch";
+    // フック対象シグネチャの解決結果の保存先（system_server が書き込める場所）
+    private static final String SIGNATURE_CACHE_PATH = "/data/system/multiwindowpatch_hooks.properties";
     
     // 除外するパッケージ（システムアプリや自分自身）
     private static final Set<String> EXCLUDED_PACKAGES = new HashSet<>();
@@ -33,6 +38,19 @@ public class MainHook implements IXposedHookLoadPackage {
         EXCLUDED_PACKAGES.add("com.tqmane.multiwindowpatch");
     }
     
+    // プロセス単位の前面状態トラッカー（アプリプロセスでのみ使用）
+    private static ProcessForegroundTracker foregroundTracker;
+    private static NotificationServiceClient serviceClient;
+    
+    // system_server のフックで使うフィールドアクセサ（フック登録時に解決）
+    private static HookFieldAccessors fieldAccessors;
+    
+    // system_server で前面アプリを検出するモードのトラッカー
+    private static SystemForegroundTracker systemForegroundTracker;
+    
+    // アプリのUIDの範囲（UserHandle.PER_USER_RANGE）
+    private static final int PER_USER_RANGE = 100000;
+    
     @Override
     public void handleLoadPackage(final LoadPackageParam lpparam) throws Throwable {
         // システムフレームワーク(android)にフックを適用
@@ -41,7 +59,12 @@ public class MainHook implements IXposedHookLoadPackage {
         } 
         // その他のアプリにフックを適用（通知表示用）
         else if (!EXCLUDED_PACKAGES.contains(lpparam.packageName)) {
-            hookAppLifecycle(lpparam);
+            // system_server 側で検出するモードなら、システムユーザーのアプリには何もフックしない
+            // （プロセスの起動後に無効にされた場合、そのプロセスは次に起動するまで通知されない）
+            boolean systemUser = Process.myUid() / PER_USER_RANGE == 0;
+            if (!systemUser || !HookSettings.systemForegroundTracking()) {
+                hookAppLifecycle(lpparam, systemUser);
+            }
         }
     }
     
@@ -49,26 +72,86 @@ public class MainHook implements IXposedHookLoadPackage {
      * システムフレームワークにマルチウィンドウ関連のフックを適用
      */
     private void hookSystemFramework(final LoadPackageParam lpparam) {
-        XposedBridge.log(TAG + ": Hooking into Android framework");
+        HookLog.i("Hooking into Android framework");
+        long startNanos = System.nanoTime();
+        HookSignatureResolver resolver = null;
 
         try {
-            // ActivityInfo のリサイズモードを強制的に変更
-            hookActivityInfo(lpparam);
+            // パッケージ・コンポーネント単位のリサイズポリシーを読み込み
+            ResizePolicies.load();
+            
+            // フックから触るフィールドは一度だけ解決しておく
+            resolveFieldAccessors();
+            
+            resolver = new HookSignatureResolver(
+                new File(SIGNATURE_CACHE_PATH),
+                Build.FINGERPRINT,
+                lpparam.classLoader
+            );
+            
+            // パッケージの解析結果の resizeMode を書き換える（解析時に1回だけ）
+            boolean parsedPackageHooked = hookParsedPackage(lpparam, resolver);
+            
+            // 呼び出しごとの判定のフックは、解析時に書き換えられない場合か設定で有効にした場合だけ
+            if (!parsedPackageHooked || HookSettings.isResizeableFallback()) {
+                hookActivityInfo(lpparam);
+            }
             
             // ApplicationInfo のフラグを変更
-            hookApplicationInfo(lpparam);
+            hookApplicationInfo(lpparam, resolver);
+            
+            // 最前面のアクティビティの変化を監視（設定で有効なあいだだけ通知サービスへ伝える。
+            // アプリのプロセスも同じ設定を読み直すので、再起動しなくても両方が同じモードに従う）
+            hookTopResumedActivity(lpparam, resolver);
             
-            XposedBridge.log(TAG + ": Successfully hooked multi-window checks");
+            // 旧 PackageParser（残っているビルドのみ）
+            hookPackageParser(resolver);
+            
+            HookLog.i("Successfully hooked multi-window checks in %d us",
+                (System.nanoTime() - startNanos) / 1000);
             
         } catch (Throwable t) {
-            XposedBridge.log(TAG + ": Error hooking: " + t.getMessage());
+            HookLog.e("Error hooking", t);
+        } finally {
+            // 途中で失敗しても、それまでに解決した結果（見つからなかったことも含む）は残す
+            if (resolver != null) {
+                resolver.save();
+            }
         }
     }
     
     /**
      * アプリのライフサイクルをフックして通知を管理
+     * 通知サービスへの連絡はプロセスの前面状態が変わったときだけ行う
+     * システムユーザーのアプリでは、system_server 側で検出するモードが有効なあいだは連絡しない
      */
-    private void hookAppLifecycle(final LoadPackageParam lpparam) {
+    private void hookAppLifecycle(final LoadPackageParam lpparam, final boolean systemUser) {
+        // Activity はブートクラスパスのクラスなので、同じプロセスで二重にフックしない
+        if (foregroundTracker != null) {
+            return;
+        }
+        foregroundTracker = new ProcessForegroundTracker(new ProcessForegroundTracker.Listener() {
+            @Override
+            public void onForeground(Context context) {
+                if (systemUser && HookSettings.systemForegroundTracking()) {
+                    return;
+                }
+                serviceClient(context).send(
+                    lpparam.packageName, MultiWindowNotificationService.EVENT_FOREGROUND);
+            }
+            
+            @Override
+            public void onBackground(Context context, boolean finishing) {
+                if (systemUser && HookSettings.systemForegroundTracking()) {
+                    return;
+                }
+                // アプリが完全に終了する場合のみ通知を非表示
+                serviceClient(context).send(lpparam.packageName, finishing
+                    ? MultiWindowNotificationService.EVENT_FINISHED
+                    : MultiWindowNotificationService.EVENT_BACKGROUND);
+            }
+        });
+        
         try {
             // Activity.onResume をフック（アプリが前面に来た時）
             XposedHelpers.findAndHookMethod(
@@ -78,8 +161,7 @@ public class MainHook implements IXposedHookLoadPackage {
                 new XC_MethodHook() {
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        Activity activity = (Activity) param.thisObject;
-                        showMultiWindowNotification(activity, lpparam.packageName);
+                        foregroundTracker.onActivityResumed((Activity) param.thisObject);
                     }
                 }
             );
@@ -92,32 +174,85 @@ public class MainHook implements IXposedHookLoadPackage {
                 new XC_MethodHook() {
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        Activity activity = (Activity) param.thisObject;
-                        // アプリが完全に終了する場合のみ通知を非表示
-                        if (activity.isFinishing()) {
-                            hideMultiWindowNotification(activity);
-                        }
+                        foregroundTracker.onActivityPaused((Activity) param.thisObject);
                     }
                 }
             );
             
-            // Activity.onDestroy をフック
-            XposedHelpers.findAndHookMethod(
-                "android.app.Activity",
-                lpparam.classLoader,
-                "onDestroy",
-                new XC_MethodHook() {
-                    @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        Activity activity = (Activity) param.thisObject;
-                        hideMultiWindowNotification(activity);
+        } catch (Throwable t) {
+            HookLog.w("Error hooking app lifecycle for %s", lpparam.packageName, t);
+        }
+    }
+    
+    /**
+     * system_server で最前面の再開中アクティビティの変化を監視する
+     * （アプリごとのライフサイクルのフックの代わりに通知サービスへイベントを送る）
+     */
+    private void hookTopResumedActivity(LoadPackageParam lpparam, HookSignatureResolver resolver) {
+        try {
+            Class<?> taskManager = XposedHelpers.findClass(
+                "com.android.server.wm.ActivityTaskManagerService",
+                lpparam.classLoader
+            );
+            
+            // setLastResumedActivityUncheckLocked(ActivityRecord, String)
+            HookSignatureResolver.Resolved resolved = resolver.method(
+                "ActivityTaskManagerService.setLastResumedActivityUncheckLocked",
+                taskManager,
+                "setLastResumedActivityUncheckLocked",
+                types -> HookSignatureResolver.indexOfType(types, "com.android.server.wm.ActivityRecord")
+            );
+            
+            if (resolved == null) {
+                HookLog.w("setLastResumedActivityUncheckLocked not found, foreground tracking unavailable");
+                return;
+            }
+            
+            systemForegroundTracker = new SystemForegroundTracker(
+                EXCLUDED_PACKAGES, this::deliverWithoutBinding);
+            final int recordIndex = resolved.argIndex;
+            XposedBridge.hookMethod(resolved.member, new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    long startNanos = System.nanoTime();
+                    try {
+                        systemForegroundTracker.onTopResumedActivityChanged(
+                            param.thisObject, param.args[recordIndex],
+                            HookSettings.systemForegroundTracking());
+                    } catch (ReflectiveOperationException e) {
+                        HookLog.w("Failed to read top resumed activity", e);
                     }
+                    HookMetrics.TOP_RESUMED_ACTIVITY.record(System.nanoTime() - startNanos);
                 }
-            );
+            });
+            
+            HookMetrics.TOP_RESUMED_ACTIVITY.markInstalled(resolved.member
+                + (resolved.fromCache ? " [cached]" : ""));
+            HookLog.i("Hooked %s for foreground tracking", resolved.member);
             
         } catch (Throwable t) {
-            XposedBridge.log(TAG + ": Error hooking app lifecycle for " + 
-                lpparam.packageName + ": " + t.getMessage());
+            HookLog.e("Failed to hook top resumed activity", t);
+        }
+    }
+    
+    /**
+     * 通知サービスへの常時接続クライアントを取得（初回のみ作成）
+     */
+    private NotificationServiceClient serviceClient(Context context) {
+        if (serviceClient == null) {
+            serviceClient = new NotificationServiceClient(context, this::deliverWithoutBinding);
+        }
+        return serviceClient;
+    }
+    
+    /**
+     * バインドできない環境では従来どおりサービスを起動・停止する
+     */
+    private void deliverWithoutBinding(Context context, String packageName, int event) {
+        if (event == MultiWindowNotificationService.EVENT_FOREGROUND) {
+            showMultiWindowNotification(context, packageName);
+        } else if (event == MultiWindowNotificationService.EVENT_FINISHED) {
+            hideMultiWindowNotification(context, packageName);
         }
     }
     
@@ -139,31 +274,110 @@ public class MainHook implements IXposedHookLoadPackage {
             // Android 8.0以降は startForegroundService
             context.startForegroundService(serviceIntent);
             
-            XposedBridge.log(TAG + ": Notification shown for " + packageName);
+            HookLog.d("Notification shown for %s", packageName);
         } catch (Exception e) {
-            XposedBridge.log(TAG + ": Failed to show notification: " + e.getMessage());
+            HookLog.w("Failed to show notification", e);
         }
     }
     
     /**
      * マルチウィンドウ通知を非表示
+     * サービスには終了を伝えるだけで、通知を消すのは猶予時間が過ぎてからサービスが判断する
      */
-    private void hideMultiWindowNotification(Context context) {
+    private void hideMultiWindowNotification(Context context, String packageName) {
+        Intent serviceIntent = new Intent();
+        serviceIntent.setClassName(
+            "com.tqmane.multiwindowpatch",
+            "com.tqmane.multiwindowpatch.MultiWindowNotificationService"
+        );
         try {
-            Intent serviceIntent = new Intent();
-            serviceIntent.setClassName(
-                "com.tqmane.multiwindowpatch",
-                "com.tqmane.multiwindowpatch.MultiWindowNotificationService"
-            );
-            context.stopService(serviceIntent);
-            
+            serviceIntent.putExtra(MultiWindowNotificationService.EXTRA_PACKAGE_NAME, packageName);
+            serviceIntent.putExtra(MultiWindowNotificationService.EXTRA_EVENT,
+                MultiWindowNotificationService.EVENT_FINISHED);
+            context.startService(serviceIntent);
+        } catch (IllegalStateException e) {
+            // バックグラウンドからは startService できないので従来どおり停止する
+            try {
+                context.stopService(serviceIntent);
+            } catch (Exception e2) {
+                HookLog.w("Failed to hide notification", e2);
+            }
         } catch (Exception e) {
-            XposedBridge.log(TAG + ": Failed to hide notification: " + e.getMessage());
+            HookLog.w("Failed to hide notification", e);
         }
     }
 
     /**
-     * ActivityInfo.isResizeable をフックして常にtrueを返す
+     * ActivityInfo / ApplicationInfo のフィールドを解決する
+     * 失敗した場合はフィールドを書き換えるフックが何もしなくなるだけ
+     */
+    private void resolveFieldAccessors() {
+        try {
+            fieldAccessors = HookFieldAccessors.resolve(android.content.pm.ActivityInfo.class);
+        } catch (Throwable t) {
+            HookLog.w("Failed to resolve ActivityInfo fields", t);
+        }
+    }
+    
+    /**
+     * PackageParser2.parsePackage の結果（Android 15 の PackageImpl）の resizeMode をポリシーに応じて書き換える
+     * 起動時のスキャンとインストール・更新時にパッケージごとに1回だけ呼ばれる
+     *
+     * @return フックを登録できた場合は true
+     */
+    private boolean hookParsedPackage(LoadPackageParam lpparam, HookSignatureResolver resolver) {
+        try {
+            Class<?> packageParser2 = XposedHelpers.findClass(
+                "com.android.server.pm.parsing.PackageParser2",
+                lpparam.classLoader
+            );
+            
+            // parsePackage(File packageFile, int flags, boolean useCaches)
+            HookSignatureResolver.Resolved resolved = resolver.method(
+                "PackageParser2.parsePackage",
+                packageParser2,
+                "parsePackage",
+                types -> types.length == 3 && types[0] == File.class
+                    && types[1] == int.class && types[2] == boolean.class ? 0 : -1
+            );
+            
+            // Android 14 以降: parsePackage(File packageFile, int flags, boolean useCaches, List<File> frameworkSplits)
+            // （呼び出し元によってはこちらを直接使うので両方フックする。書き換えは何度行っても同じ結果になる）
+            HookSignatureResolver.Resolved withSplits = resolver.method(
+                "PackageParser2.parsePackage(List)",
+                packageParser2,
+                "parsePackage",
+                types -> types.length == 4 && types[0] == File.class
+                    && types[1] == int.class && types[2] == boolean.class
+                    && types[3] == List.class ? 0 : -1
+            );
+            
+            if (resolved == null) {
+                HookLog.i("PackageParser2.parsePackage not found, using isResizeable()");
+                return false;
+            }
+            
+            ResizeHooks.ParsePackage callback = new ResizeHooks.ParsePackage(HookMetrics.PARSE_PACKAGE);
+            XposedBridge.hookMethod(resolved.member, callback);
+            String installed = resolved.member + (resolved.fromCache ? " [cached]" : "");
+            if (withSplits != null) {
+                XposedBridge.hookMethod(withSplits.member, callback);
+                installed += ", " + withSplits.member + (withSplits.fromCache ? " [cached]" : "");
+            }
+            
+            HookMetrics.PARSE_PACKAGE.markInstalled(installed);
+            HookLog.i("Hooked %s", installed);
+            return true;
+            
+        } catch (Throwable t) {
+            HookLog.w("Failed to hook PackageParser2 (using isResizeable())", t);
+            return false;
+        }
+    }
+    
+    /**
+     * ActivityInfo.isResizeable をフックしてポリシーに応じた結果を返す
+     * （既定ではすべて true）
      */
     private void hookActivityInfo(LoadPackageParam lpparam) {
         try {
@@ -172,26 +386,24 @@ public class MainHook implements IXposedHookLoadPackage {
                 "android.content.pm.ActivityInfo",
                 lpparam.classLoader,
                 "isResizeable",
-                new XC_MethodHook() {
-                    @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        // 常にtrueを返してマルチウィンドウを有効化
-                        param.setResult(true);
-                    }
-                }
+                new ResizeHooks.IsResizeable(HookMetrics.IS_RESIZEABLE)
             );
             
-            XposedBridge.log(TAG + ": Hooked ActivityInfo.isResizeable()");
+            HookMetrics.IS_RESIZEABLE.markInstalled("isResizeable()");
+            HookLog.i("Hooked ActivityInfo.isResizeable()");
             
         } catch (Throwable t) {
-            XposedBridge.log(TAG + ": Failed to hook ActivityInfo: " + t.getMessage());
+            HookLog.e("Failed to hook ActivityInfo", t);
         }
     }
 
     /**
      * ApplicationInfo のフラグを変更してマルチウィンドウをサポート
+     *
+     * フック対象のシグネチャは Android のバージョンによって異なるため、
+     * 宣言されたメンバを引数の型の形で走査して決める（結果はビルドごとにキャッシュ）。
      */
-    private void hookApplicationInfo(LoadPackageParam lpparam) {
+    private void hookApplicationInfo(LoadPackageParam lpparam, HookSignatureResolver resolver) {
         // ActivityRecord のフックは Android バージョンによって異なるため、
         // 失敗してもエラーとして扱わない
         try {
@@ -200,122 +412,82 @@ public class MainHook implements IXposedHookLoadPackage {
                 lpparam.classLoader
             );
             
-            // Android 14/15 では異なるコンストラクタシグネチャを使用する可能性がある
-            // 複数のパターンを試行
-            boolean hooked = false;
-            
-            // パターン1: 古いシグネチャ
-            try {
-                XposedHelpers.findAndHookConstructor(
-                    activityRecord,
-                    "com.android.server.wm.ActivityTaskManagerService",
-                    int.class,
-                    "android.content.pm.ActivityInfo",
-                    new XC_MethodHook() {
-                        @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                            modifyActivityInfo(param.args[2]);
-                        }
-                    }
-                );
-                hooked = true;
-                XposedBridge.log(TAG + ": Hooked ActivityRecord constructor (pattern 1)");
-            } catch (Throwable t) {
-                // パターン1失敗、次を試行
-            }
-            
-            // パターン2: より詳細なシグネチャ
-            if (!hooked) {
-                try {
-                    // Android 12以降の可能性があるシグネチャ
-                    XposedHelpers.findAndHookConstructor(
-                        activityRecord,
-                        "com.android.server.wm.ActivityTaskManagerService",
-                        int.class,
-                        "android.content.pm.ActivityInfo",
-                        "android.content.Intent",
-                        new XC_MethodHook() {
-                            @Override
-                            protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                                modifyActivityInfo(param.args[2]);
-                            }
-                        }
-                    );
-                    hooked = true;
-                    XposedBridge.log(TAG + ": Hooked ActivityRecord constructor (pattern 2)");
-                } catch (Throwable t) {
-                    // パターン2も失敗
-                }
-            }
-            
-            if (!hooked) {
-                XposedBridge.log(TAG + ": Could not hook ActivityRecord constructor (not critical)");
-            }
-            
-        } catch (Throwable t) {
-            XposedBridge.log(TAG + ": ActivityRecord not found (not critical): " + t.getMessage());
-        }
-        
-        // 代替アプローチ: PackageParser をフック
-        try {
-            Class<?> packageParser = XposedHelpers.findClass(
-                "android.content.pm.PackageParser",
-                lpparam.classLoader
+            // 先頭が ActivityTaskManagerService で、ActivityInfo を受け取るコンストラクタ
+            HookSignatureResolver.Resolved resolved = resolver.constructor(
+                "ActivityRecord.<init>",
+                activityRecord,
+                types -> types.length > 0
+                        && types[0].getName().equals("com.android.server.wm.ActivityTaskManagerService")
+                    ? HookSignatureResolver.indexOfType(types, "android.content.pm.ActivityInfo")
+                    : -1
             );
             
-            // generateActivityInfo メソッドをフック
-            XposedHelpers.findAndHookMethod(
-                packageParser,
-                "generateActivityInfo",
-                "android.content.pm.PackageParser$Activity",
-                int.class,
-                "android.content.pm.PackageUserState",
-                int.class,
-                new XC_MethodHook() {
+            if (resolved != null) {
+                final int activityInfoIndex = resolved.argIndex;
+                XposedBridge.hookMethod(resolved.member, new ResizeHooks.ActivityRecordInit(
+                        activityInfoIndex, fieldAccessors, HookMetrics.ACTIVITY_RECORD) {
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        android.content.pm.ActivityInfo activityInfo = 
-                            (android.content.pm.ActivityInfo) param.getResult();
+                        super.afterHookedMethod(param);
                         
-                        if (activityInfo != null) {
-                            // Android 7.0以降で利用可能な定数
-                            // RESIZE_MODE_RESIZEABLE = 2
-                            // RESIZE_MODE_RESIZEABLE_VIA_SDK_VERSION = 1
-                            XposedHelpers.setIntField(activityInfo, "resizeMode", 2);
-                            
-                            param.setResult(activityInfo);
+                        // 計測結果のダンプ用レシーバーは ActivityManager が動き出してから登録
+                        if (!HookMetrics.isDumpReceiverRegistered()) {
+                            HookMetrics.registerDumpReceiver(
+                                (Context) XposedHelpers.getObjectField(param.args[0], "mContext"));
                         }
                     }
-                }
-            );
-            
-            XposedBridge.log(TAG + ": Hooked PackageParser.generateActivityInfo()");
+                });
+                HookMetrics.ACTIVITY_RECORD.markInstalled(resolved.member
+                    + " [ActivityInfo at " + activityInfoIndex + (resolved.fromCache ? ", cached]" : "]"));
+                HookLog.i("Hooked ActivityRecord constructor (%s, ActivityInfo at %d%s)",
+                    resolved.member, activityInfoIndex, resolved.fromCache ? ", cached" : "");
+            } else {
+                HookLog.i("Could not hook ActivityRecord constructor (not critical)");
+            }
             
         } catch (Throwable t) {
-            XposedBridge.log(TAG + ": Failed to hook PackageParser: " + t.getMessage());
+            HookLog.w("ActivityRecord not found (not critical)", t);
         }
     }
-    
+
     /**
-     * ActivityInfo を修正してマルチウィンドウを有効化
+     * 代替アプローチ: 旧 PackageParser の generateActivityInfo をフック
+     * （このクラスやメソッドが無いビルドでは、見つからなかったことをキャッシュして次回から探さない）
      */
-    private void modifyActivityInfo(Object info) {
+    private void hookPackageParser(HookSignatureResolver resolver) {
         try {
-            if (info != null) {
-                // resizeMode フィールドを変更
-                int resizeModeResizeable = 2; // RESIZE_MODE_RESIZEABLE
-                XposedHelpers.setIntField(info, "resizeMode", resizeModeResizeable);
-                
-                // ApplicationInfo のフラグも変更
-                Object appInfo = XposedHelpers.getObjectField(info, "applicationInfo");
-                if (appInfo != null) {
-                    int flags = XposedHelpers.getIntField(appInfo, "flags");
-                    // FLAG_SUPPORTS_SCREEN_DENSITIES などを追加
-                    XposedHelpers.setIntField(appInfo, "flags", flags);
-                }
+            // generateActivityInfo(PackageParser.Activity, int, PackageUserState, int)
+            // （3番目の型は版によって FrameworkPackageUserState などに変わるので、名前では比べない）
+            HookSignatureResolver.Resolved resolved = resolver.method(
+                "PackageParser.generateActivityInfo",
+                "android.content.pm.PackageParser",
+                "generateActivityInfo",
+                types -> types.length == 4
+                        && types[0].getName().equals("android.content.pm.PackageParser$Activity")
+                        && types[1] == int.class
+                        && types[3] == int.class
+                    ? 0
+                    : -1
+            );
+            
+            if (resolved == null) {
+                HookLog.d("PackageParser.generateActivityInfo() not present on this build");
+                return;
             }
+            
+            // generateActivityInfo メソッドをフック
+            XposedBridge.hookMethod(
+                resolved.member,
+                new ResizeHooks.GenerateActivityInfo(fieldAccessors, HookMetrics.GENERATE_ACTIVITY_INFO)
+            );
+            
+            HookMetrics.GENERATE_ACTIVITY_INFO.markInstalled(resolved.member
+                + (resolved.fromCache ? " [cached]" : ""));
+            HookLog.i("Hooked PackageParser.generateActivityInfo()%s",
+                resolved.fromCache ? " (cached)" : "");
+            
         } catch (Throwable t) {
-            // エラーは無視（すべてのケースで適用できるわけではないため）
+            HookLog.w("Failed to hook PackageParser", t);
         }
     }
 }
@@ -1,11 +1,11 @@
 package com.tqmane.multiwindowpatch;
 
-import android.app.ActivityOptions;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-
-import de.robv.android.xposed.XposedBridge;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserManager;
 
 /**
  * マルチウィンドウアクションレシーバー
@@ -13,10 +13,9 @@ import de.robv.android.xposed.XposedBridge;
  */
 public class MultiWindowActionReceiver extends BroadcastReceiver {
     
-    private static final String TAG = "MultiWindowPatch";
-    
     @Override
     public void onReceive(Context context, Intent intent) {
+        long requestUptimeMs = SystemClock.uptimeMillis();
         String action = intent.getAction();
         
         if (MultiWindowNotificationService.ACTION_OPEN_MULTI_WINDOW.equals(action)) {
@@ -25,7 +24,7 @@ public class MultiWindowActionReceiver extends BroadcastReceiver {
             );
             
             if (packageName != null) {
-                openInMultiWindow(context, packageName);
+                openInMultiWindow(context, packageName, requestUptimeMs);
             }
         }
     }
@@ -33,34 +32,25 @@ public class MultiWindowActionReceiver extends BroadcastReceiver {
     /**
      * 指定されたパッケージをマルチウィンドウモードで開く
      */
-    private void openInMultiWindow(Context context, String packageName) {
+    private void openInMultiWindow(Context context, String packageName, long requestUptimeMs) {
         try {
-            XposedBridge.log(TAG + ": Attempting to launch " + packageName + " in multi-window mode");
-            
-            // パッケージマネージャーからランチャーインテントを取得
-            Intent launchIntent = context.getPackageManager()
-                .getLaunchIntentForPackage(packageName);
+            HookLog.d("Attempting to launch %s in multi-window mode", packageName);
             
-            if (launchIntent == null) {
-                XposedBridge.log(TAG + ": Launch intent not found for " + packageName);
+            if (!MultiWindowLauncher.get(context).launch(packageName, requestUptimeMs)) {
+                HookLog.w("Launch intent not found for %s", packageName);
                 return;
             }
+            HookLog.d("Successfully launched %s in multi-window mode", packageName);
             
-            // Android 15+ でマルチウィンドウモードでアプリを起動
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_MULTIPLE_TASK);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_LAUNCH_ADJACENT);
-            
-            // ActivityOptionsでマルチウィンドウモードを指定
-            ActivityOptions options = ActivityOptions.makeBasic();
-            options.setLaunchBounds(null);  // システムにバウンドを決定させる
-            
-            context.startActivity(launchIntent, options.toBundle());
-            XposedBridge.log(TAG + ": Successfully launched " + packageName + " in multi-window mode");
+            // 通知はこのプロセスと同じプロファイルのアプリについて出るので、そのプロファイルとして記録
+            // （書き込みが終わるまでプロセスを終了させない）
+            long userSerial = context.getSystemService(UserManager.class)
+                .getSerialNumberForUser(Process.myUserHandle());
+            PendingResult pendingResult = goAsync();
+            LaunchHistory.get(context).record(AppInfo.keyOf(userSerial, packageName), pendingResult::finish);
             
         } catch (Exception e) {
-            XposedBridge.log(TAG + ": Failed to launch in multi-window: " + e.getMessage());
-            e.printStackTrace();
+            HookLog.e("Failed to launch in multi-window", e);
         }
     }
 }
@@ -0,0 +1,281 @@
+package com.tqmane.multiwindowpatch;
+
+import android.app.ActivityOptions;
+import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * アプリをマルチウィンドウで起動する共通部品（モジュールのアプリのプロセスで使用）
+ *
+ * パッケージごとの起動インテントはキャッシュし、パッケージの変更通知で破棄する。
+ * 起動を要求してから対象のアプリが前面に出るまで（フック側から EVENT_FOREGROUND が届くまで）
+ * の時間を記録する。すべての呼び出しはメインスレッドで行われる前提。
+ *
+ * 仕事用プロファイルなど他のプロファイルのアプリは LauncherApps 経由で起動する。
+ */
+final class MultiWindowLauncher {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    // この時間内に前面に出なかった起動は計測から外す
+    private static final long PENDING_TIMEOUT_MS = 10_000;
+
+    // レイテンシの集計に使う直近の件数
+    private static final int SAMPLE_COUNT = 64;
+
+    private static MultiWindowLauncher instance;
+
+    private final Context context;
+    private final LauncherApps launcherApps;
+    private final UserManager userManager;
+    private final Map<String, Intent> launchIntents = new HashMap<>();
+    private final Map<String, Long> pendingLaunches = new HashMap<>();
+
+    private final long[] samples = new long[SAMPLE_COUNT];
+    private int sampleCount;
+    private int sampleNext;
+
+    // パッケージが変更されるたびに進む（準備済みの起動が古いかどうかの判定用）
+    private int generation;
+
+    /**
+     * 起動インテントとオプションを解決済みのワークスペース
+     */
+    static final class PreparedLaunch {
+        final Workspace workspace;
+        final int generation;
+        final String[] packageNames;
+        final Intent[] intents;
+        final Bundle[] options;
+
+        PreparedLaunch(Workspace workspace, int generation, String[] packageNames,
+                Intent[] intents, Bundle[] options) {
+            this.workspace = workspace;
+            this.generation = generation;
+            this.packageNames = packageNames;
+            this.intents = intents;
+            this.options = options;
+        }
+
+        /**
+         * 起動できるアプリの数（アンインストールされたアプリは含まない）
+         */
+        int size() {
+            return intents.length;
+        }
+    }
+
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() != null) {
+                launchIntents.remove(intent.getData().getSchemeSpecificPart());
+                // 準備済みのワークスペースも作り直させる
+                generation++;
+            }
+        }
+    };
+
+    private MultiWindowLauncher(Context context) {
+        this.context = context;
+        this.launcherApps = context.getSystemService(LauncherApps.class);
+        this.userManager = context.getSystemService(UserManager.class);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageChangeReceiver, filter);
+    }
+
+    static MultiWindowLauncher get(Context context) {
+        if (instance == null) {
+            instance = new MultiWindowLauncher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * 指定されたパッケージをマルチウィンドウモードで起動する
+     * requestUptimeMs はタップやブロードキャストを受けた時刻（SystemClock.uptimeMillis）
+     *
+     * @return 起動インテントが見つからない場合は false
+     */
+    boolean launch(String packageName, long requestUptimeMs) {
+        Intent template = launchIntentFor(packageName);
+        if (template == null) {
+            return false;
+        }
+        try {
+            startActivity(template);
+        } catch (ActivityNotFoundException e) {
+            // キャッシュしたコンポーネントが古い。解決し直して一度だけ再試行
+            launchIntents.remove(packageName);
+            template = launchIntentFor(packageName);
+            if (template == null) {
+                return false;
+            }
+            startActivity(template);
+        }
+        pendingLaunches.put(packageName, requestUptimeMs);
+        return true;
+    }
+
+    /**
+     * 指定されたプロファイル（UserManager のシリアル番号）のアプリをマルチウィンドウモードで起動する
+     *
+     * @return プロファイルかアプリが見つからない場合は false
+     */
+    boolean launch(String packageName, long userSerial, long requestUptimeMs) {
+        UserHandle user = userManager.getUserForSerialNumber(userSerial);
+        if (user == null) {
+            return false;
+        }
+        if (user.equals(Process.myUserHandle())) {
+            return launch(packageName, requestUptimeMs);
+        }
+        List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, user);
+        if (activities.isEmpty()) {
+            return false;
+        }
+        // 他のプロファイルのアクティビティにはインテントのフラグを渡せないため、オプションだけ指定する
+        launcherApps.startMainActivity(activities.get(0).getComponentName(), user, null,
+            multiWindowOptions(null));
+        pendingLaunches.put(packageName, requestUptimeMs);
+        return true;
+    }
+
+    /**
+     * ワークスペースの起動インテントとオプションを前もって解決する
+     * 起動インテントが見つからないアプリは除く
+     */
+    PreparedLaunch prepare(Workspace workspace) {
+        List<String> packageNames = new ArrayList<>();
+        List<Intent> intents = new ArrayList<>();
+        List<Bundle> options = new ArrayList<>();
+        for (Workspace.Entry entry : workspace.entries) {
+            Intent template = launchIntentFor(entry.packageName);
+            if (template == null) {
+                continue;
+            }
+            packageNames.add(entry.packageName);
+            intents.add(multiWindowIntent(template));
+            options.add(multiWindowOptions(entry.bounds));
+        }
+        return new PreparedLaunch(workspace, generation,
+            packageNames.toArray(new String[0]),
+            intents.toArray(new Intent[0]),
+            options.toArray(new Bundle[0]));
+    }
+
+    /**
+     * 準備済みのワークスペースを続けて起動する
+     * パッケージが変更されていれば解決し直してから起動する
+     *
+     * @return 起動したアプリの数
+     */
+    int launch(PreparedLaunch prepared, long requestUptimeMs) {
+        if (prepared.generation != generation) {
+            prepared = prepare(prepared.workspace);
+        }
+        int launched = 0;
+        for (int i = 0; i < prepared.size(); i++) {
+            try {
+                context.startActivity(prepared.intents[i], prepared.options[i]);
+                pendingLaunches.put(prepared.packageNames[i], requestUptimeMs);
+                launched++;
+            } catch (ActivityNotFoundException e) {
+                launchIntents.remove(prepared.packageNames[i]);
+                Log.w(TAG, "Launch target gone: " + prepared.packageNames[i]);
+            }
+        }
+        return launched;
+    }
+
+    /**
+     * 対象のアプリが前面に出たことの通知（通知サービスが EVENT_FOREGROUND を受けたとき）
+     */
+    void onWindowShown(String packageName) {
+        Long requested = pendingLaunches.remove(packageName);
+        if (requested == null) {
+            return;
+        }
+        long latency = SystemClock.uptimeMillis() - requested;
+        if (latency > PENDING_TIMEOUT_MS) {
+            return;
+        }
+        samples[sampleNext] = latency;
+        sampleNext = (sampleNext + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+        Log.i(TAG, "Launched " + packageName + " in " + latency + " ms");
+    }
+
+    /**
+     * 直近の起動レイテンシの要約（件数、p50、p90、最大）
+     */
+    String latencySummary() {
+        if (sampleCount == 0) {
+            return "計測なし";
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "%d 回  p50: %d ms  p90: %d ms  最大: %d ms",
+            sampleCount,
+            sorted[(sampleCount - 1) / 2],
+            sorted[(int) Math.ceil(sampleCount * 0.9) - 1],
+            sorted[sampleCount - 1]);
+    }
+
+    private Intent launchIntentFor(String packageName) {
+        Intent template = launchIntents.get(packageName);
+        if (template == null) {
+            template = context.getPackageManager().getLaunchIntentForPackage(packageName);
+            if (template == null) {
+                return null;
+            }
+            launchIntents.put(packageName, template);
+        }
+        return template;
+    }
+
+    private void startActivity(Intent template) {
+        // システムにバウンドを決定させる
+        context.startActivity(multiWindowIntent(template), multiWindowOptions(null));
+    }
+
+    private static Intent multiWindowIntent(Intent template) {
+        Intent launchIntent = new Intent(template);
+
+        // Android 15+ でマルチウィンドウモードで起動
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_MULTIPLE_TASK);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_LAUNCH_ADJACENT);
+        return launchIntent;
+    }
+
+    private static Bundle multiWindowOptions(Rect bounds) {
+        ActivityOptions options = ActivityOptions.makeBasic();
+        options.setLaunchBounds(bounds);
+        return options.toBundle();
+    }
+}
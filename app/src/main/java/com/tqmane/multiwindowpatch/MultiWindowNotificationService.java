@@ -7,12 +7,34 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * マルチウィンドウ通知サービス
  * アプリ起動中に常時通知を表示し、マルチウィンドウモードへの切り替えボタンを提供
+ *
+ * パッケージごとのセッション（前面・バックグラウンド・終了待ち）をサービス側で管理する。
+ * アプリが閉じられてもすぐには通知を消さず、猶予時間内に別のアプリが前面に来れば
+ * 通知の内容を差し替えるだけにする（フォアグラウンドの解除と再開始を避ける）。
+ * 期限の確認は1つのタイマーでまとめて行い、セッションがなくなればサービスを停止する。
+ * バインドで連絡してきたプロセスが終了イベントを送らずに落ちた場合は、
+ * そのプロセスが報告したセッションを閉じられたものとして扱う。
  */
 public class MultiWindowNotificationService extends Service {
     
@@ -23,28 +45,308 @@ public class MultiWindowNotificationService extends Service {
     public static final String ACTION_OPEN_MULTI_WINDOW = "com.tqmane.multiwindowpatch.OPEN_MULTI_WINDOW";
     public static final String EXTRA_PACKAGE_NAME = "package_name";
     
+    // フックしたアプリから常時接続で使うイベントチャンネル
+    public static final String ACTION_BIND_EVENTS = "com.tqmane.multiwindowpatch.BIND_EVENTS";
+    public static final int MSG_APP_EVENTS = 1;
+    /** サービスから送信元への返信: このイベントは startForegroundService で送り直してほしい */
+    public static final int MSG_EVENTS_REJECTED = 2;
+    public static final String KEY_PACKAGES = "packages";
+    public static final String KEY_EVENTS = "events";
+    
+    /** アプリのプロセスが前面に来た */
+    public static final int EVENT_FOREGROUND = 1;
+    /** アプリのプロセスがバックグラウンドに移った（通知は維持） */
+    public static final int EVENT_BACKGROUND = 2;
+    /** アプリが最後のアクティビティを閉じた */
+    public static final int EVENT_FINISHED = 3;
+    
+    /** startService で届くイベント（省略時は EVENT_FOREGROUND） */
+    public static final String EXTRA_EVENT = "event";
+    
+    // アプリが閉じられてから通知を消すまでの猶予（画面遷移やアプリの切り替えはこの間に終わる）
+    private static final long FINISH_GRACE_MS = 2_000;
+    
+    // バックグラウンドのまま連絡のないセッションを終了とみなすまでの時間
+    // （履歴からスワイプで消されたアプリは終了のイベントを送らずにプロセスごと終わる）
+    private static final long BACKGROUND_IDLE_MS = 10 * 60_000;
+    
+    /** セッションの状態 */
+    private static final int SESSION_FOREGROUND = 1;
+    private static final int SESSION_BACKGROUND = 2;
+    private static final int SESSION_ENDING = 3;
+    
+    /**
+     * 1つのパッケージのセッション
+     */
+    private static final class Session {
+        int state;
+        /** この時刻（uptimeMillis）を過ぎたら破棄する。0 なら期限なし */
+        long deadline;
+        /** 最後に状態を報告したプロセスの返信先（startService で届いた場合は null） */
+        IBinder client;
+    }
+    
+    private static final int NOTIFICATION_CACHE_SIZE = 16;
+    
     private String currentPackageName;
+    private boolean isForeground;
+    /** 最後の onStartCommand の startId。開始されていない（バインドだけの）場合は 0 */
+    private int lastStartId;
+    
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final Handler timerHandler = new Handler(Looper.getMainLooper());
+    private final Runnable expireSessions = this::expireSessions;
+    private long timerDeadline;
+    
+    // 終了を監視している送信元のプロセス
+    private final Set<IBinder> linkedClients = new HashSet<>();
+    
+    // パッケージごとの通知テンプレート（PendingIntent と Builder の再構築を避ける）
+    private final Map<String, Notification> notificationCache =
+        new LinkedHashMap<String, Notification>(NOTIFICATION_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Notification> eldest) {
+                return size() > NOTIFICATION_CACHE_SIZE;
+            }
+        };
+    
+    private final NotificationUpdateLimiter updateLimiter =
+        new NotificationUpdateLimiter(this::applyNotification);
+    
+    // 診断画面に出す、動作中のサービスの通知更新の統計（メインスレッドからのみ触る）
+    private static NotificationUpdateLimiter runningLimiter;
+    
+    private final Messenger eventMessenger = new Messenger(new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what != MSG_APP_EVENTS) {
+                super.handleMessage(msg);
+                return;
+            }
+            Bundle data = msg.getData();
+            String[] packageNames = data.getStringArray(KEY_PACKAGES);
+            int[] events = data.getIntArray(KEY_EVENTS);
+            if (packageNames == null || events == null || packageNames.length != events.length) {
+                return;
+            }
+            for (int i = 0; i < packageNames.length; i++) {
+                onAppEvent(packageNames[i], events[i], msg.replyTo);
+            }
+        }
+    });
     
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
+        runningLimiter = updateLimiter;
+    }
+    
+    /**
+     * 通知更新の統計（診断画面用）。サービスが動いていなければその旨を返す
+     */
+    static String updateSummary() {
+        NotificationUpdateLimiter limiter = runningLimiter;
+        if (limiter == null) {
+            return "サービス停止中";
+        }
+        return String.format(Locale.ROOT, "反映: %d 回  変化なし: %d 回  まとめて破棄: %d 回",
+            limiter.getAppliedCount(), limiter.getUnchangedCount(), limiter.getCoalescedCount());
     }
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
         if (intent != null && intent.hasExtra(EXTRA_PACKAGE_NAME)) {
-            currentPackageName = intent.getStringExtra(EXTRA_PACKAGE_NAME);
-            showNotification(currentPackageName);
+            String packageName = intent.getStringExtra(EXTRA_PACKAGE_NAME);
+            int event = intent.getIntExtra(EXTRA_EVENT, EVENT_FOREGROUND);
+            if (event != EVENT_FOREGROUND) {
+                onAppEvent(packageName, event, null);
+                return START_STICKY;
+            }
+            MultiWindowLauncher.get(this).onWindowShown(packageName);
+            updateSession(packageName, SESSION_FOREGROUND, 0);
+            currentPackageName = packageName;
+            if (isForeground) {
+                showNotification(packageName);
+            } else {
+                // startForegroundService で起動された場合は期限内に前面化する必要がある
+                updateLimiter.applyNow(packageName);
+            }
         }
         return START_STICKY;
     }
     
     @Override
     public IBinder onBind(Intent intent) {
+        if (ACTION_BIND_EVENTS.equals(intent.getAction())) {
+            return eventMessenger.getBinder();
+        }
         return null;
     }
     
+    /**
+     * バインド経由で届いたアプリのイベントを処理
+     *
+     * @param client 返信先（startService で届いた場合は null）
+     */
+    private void onAppEvent(String packageName, int event, Messenger client) {
+        long now = SystemClock.uptimeMillis();
+        switch (event) {
+            case EVENT_FOREGROUND:
+                updateSession(packageName, SESSION_FOREGROUND, 0);
+                watchClient(packageName, client);
+                if (!isForeground) {
+                    // バインドされているだけのサービスは startForeground できないので、
+                    // 自分自身を開始し直して onStartCommand で前面化する
+                    startSelfInForeground(packageName, client);
+                    break;
+                }
+                // このアプリから起動したものなら、前面に出るまでの時間を記録
+                MultiWindowLauncher.get(this).onWindowShown(packageName);
+                currentPackageName = packageName;
+                showNotification(packageName);
+                break;
+            case EVENT_BACKGROUND:
+                // 通知は維持する
+                updateSession(packageName, SESSION_BACKGROUND, now + BACKGROUND_IDLE_MS);
+                watchClient(packageName, client);
+                break;
+            case EVENT_FINISHED:
+                // 通知は猶予時間が過ぎてから消す（その前に前面に戻れば何もしない）
+                updateSession(packageName, SESSION_ENDING, now + FINISH_GRACE_MS);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * 自分自身を startForegroundService で開始する
+     * バックグラウンドからの開始が許可されない場合は、前面にいる送信元に送り直してもらう
+     */
+    private void startSelfInForeground(String packageName, Messenger client) {
+        Intent intent = new Intent(this, MultiWindowNotificationService.class);
+        intent.putExtra(EXTRA_PACKAGE_NAME, packageName);
+        try {
+            startForegroundService(intent);
+        } catch (IllegalStateException | SecurityException e) {
+            // ForegroundServiceStartNotAllowedException は IllegalStateException のサブクラス
+            Log.w("MultiWindowService", "Cannot start foreground from background: " + e.getMessage());
+            rejectEvent(client, packageName, EVENT_FOREGROUND);
+        }
+    }
+    
+    private void rejectEvent(Messenger client, String packageName, int event) {
+        if (client == null) {
+            return;
+        }
+        Bundle data = new Bundle();
+        data.putStringArray(KEY_PACKAGES, new String[] { packageName });
+        data.putIntArray(KEY_EVENTS, new int[] { event });
+        Message reply = Message.obtain(null, MSG_EVENTS_REJECTED);
+        reply.setData(data);
+        try {
+            client.send(reply);
+        } catch (RemoteException e) {
+            // 送信元のプロセスはもう無い
+        }
+    }
+    
+    /**
+     * 送信元のプロセスが落ちたらセッションを閉じられるよう、その終了を監視する
+     */
+    private void watchClient(String packageName, Messenger client) {
+        if (client == null) {
+            return;
+        }
+        final IBinder binder = client.getBinder();
+        Session session = sessions.get(packageName);
+        if (session != null) {
+            session.client = binder;
+        }
+        if (linkedClients.add(binder)) {
+            try {
+                binder.linkToDeath(() -> timerHandler.post(() -> onClientDied(binder)), 0);
+            } catch (RemoteException e) {
+                // 既に落ちている
+                onClientDied(binder);
+            }
+        }
+    }
+    
+    /**
+     * 送信元のプロセスが終了イベントを送らずに落ちた。
+     * そのプロセスが最後に報告したセッションは、閉じられた場合と同じく猶予の後に破棄する
+     */
+    private void onClientDied(IBinder binder) {
+        linkedClients.remove(binder);
+        long deadline = SystemClock.uptimeMillis() + FINISH_GRACE_MS;
+        // updateSession はマップを変更しないので、走査しながら呼んでよい
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            if (session.client == binder && session.state != SESSION_ENDING) {
+                updateSession(entry.getKey(), SESSION_ENDING, deadline);
+            }
+        }
+    }
+    
+    private void updateSession(String packageName, int state, long deadline) {
+        Session session = sessions.get(packageName);
+        if (session == null) {
+            session = new Session();
+            sessions.put(packageName, session);
+        }
+        session.state = state;
+        session.deadline = deadline;
+        if (deadline != 0 && (timerDeadline == 0 || deadline < timerDeadline)) {
+            scheduleTimer(deadline);
+        }
+    }
+    
+    private void scheduleTimer(long deadline) {
+        timerHandler.removeCallbacks(expireSessions);
+        timerDeadline = deadline;
+        if (deadline != 0) {
+            timerHandler.postAtTime(expireSessions, deadline);
+        }
+    }
+    
+    /**
+     * 期限を過ぎたセッションを破棄し、次の期限にタイマーを掛け直す
+     */
+    private void expireSessions() {
+        long now = SystemClock.uptimeMillis();
+        long next = 0;
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Session> entry = it.next();
+            Session session = entry.getValue();
+            if (session.deadline == 0) {
+                continue;
+            }
+            if (session.deadline > now) {
+                next = next == 0 ? session.deadline : Math.min(next, session.deadline);
+                continue;
+            }
+            it.remove();
+            // 表示中のアプリが閉じられたまま、またはバックグラウンドのまま戻らなかった場合は通知を消す
+            if (entry.getKey().equals(currentPackageName)) {
+                currentPackageName = null;
+                hideNotification();
+            }
+        }
+        scheduleTimer(next);
+        
+        if (sessions.isEmpty() && currentPackageName == null && lastStartId != 0) {
+            // 開始されたサービスなら停止する（バインド中のアプリがなければプロセスごと終了する）。
+            // バインドだけのサービスは stopSelf する対象がない
+            if (stopSelfResult(lastStartId)) {
+                lastStartId = 0;
+            }
+        }
+    }
+    
     /**
      * 通知チャンネルを作成（Android 8.0以降）
      */
@@ -66,15 +368,37 @@ public class MultiWindowNotificationService extends Service {
     }
     
     /**
-     * マルチウィンドウ切り替え通知を表示
+     * マルチウィンドウ切り替え通知を表示（レート制限を経由）
      */
     private void showNotification(String packageName) {
+        updateLimiter.submit(packageName);
+    }
+    
+    /**
+     * 通知を消す（レート制限を経由）
+     */
+    private void hideNotification() {
+        updateLimiter.submit(null);
+    }
+    
+    /**
+     * レート制限を通過した状態を実際の通知に反映
+     *
+     * @return 反映できた場合は true
+     */
+    private boolean applyNotification(String packageName) {
+        if (packageName == null) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            isForeground = false;
+            return true;
+        }
+        
         NotificationManager notificationManager = 
             (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         
         if (notificationManager == null) {
             Log.w("MultiWindowService", "NotificationManager unavailable");
-            return;
+            return false;
         }
 
         // Android 13+ requires user to grant POST_NOTIFICATIONS at runtime
@@ -83,10 +407,42 @@ public class MultiWindowNotificationService extends Service {
             // Still proceed to create the channel and attempt to start foreground; OS may block visuals.
         }
         
+        Notification notification = notificationFor(packageName);
+        
+        if (isForeground) {
+            // 既にフォアグラウンドなので内容の差し替えだけで良い
+            notificationManager.notify(NOTIFICATION_ID, notification);
+            return true;
+        }
+        
+        // フォアグラウンドサービスとして開始
+        try {
+            startForeground(NOTIFICATION_ID, notification);
+            isForeground = true;
+            return true;
+        } catch (SecurityException se) {
+            Log.e("MultiWindowService", "Failed to start foreground service - missing permission or not allowed: " + se.getMessage());
+        } catch (Exception e) {
+            Log.e("MultiWindowService", "Failed to start foreground service: " + e.getMessage());
+        }
+        return false;
+    }
+    
+    /**
+     * パッケージごとの通知テンプレートを取得（初回のみ構築）
+     */
+    private Notification notificationFor(String packageName) {
+        Notification cached = notificationCache.get(packageName);
+        if (cached != null) {
+            return cached;
+        }
+        
         // マルチウィンドウを開くインテント
         Intent openIntent = new Intent(ACTION_OPEN_MULTI_WINDOW);
         openIntent.setPackage(getPackageName());  // 明示的にパッケージを指定
         openIntent.putExtra(EXTRA_PACKAGE_NAME, packageName);
+        // パッケージごとに別の PendingIntent になるよう識別子を付ける
+        openIntent.setIdentifier(packageName);
         
         PendingIntent pendingIntent = PendingIntent.getBroadcast(
             this,
@@ -103,6 +459,7 @@ public class MultiWindowNotificationService extends Service {
             .setContentText("タップしてマルチウィンドウモードを開く")
             .setOngoing(true)  // スワイプで消せないようにする
             .setShowWhen(false)
+            .setOnlyAlertOnce(true)
             .setContentIntent(pendingIntent)
             .setPriority(Notification.PRIORITY_LOW)
             .addAction(
@@ -111,19 +468,21 @@ public class MultiWindowNotificationService extends Service {
                 pendingIntent
             );
         
-        // フォアグラウンドサービスとして開始
-        try {
-            startForeground(NOTIFICATION_ID, builder.build());
-        } catch (SecurityException se) {
-            Log.e("MultiWindowService", "Failed to start foreground service - missing permission or not allowed: " + se.getMessage());
-        } catch (Exception e) {
-            Log.e("MultiWindowService", "Failed to start foreground service: " + e.getMessage());
-        }
+        Notification notification = builder.build();
+        notificationCache.put(packageName, notification);
+        return notification;
     }
     
     @Override
     public void onDestroy() {
         super.onDestroy();
+        timerHandler.removeCallbacks(expireSessions);
+        updateLimiter.cancel();
+        linkedClients.clear();
+        Log.i("MultiWindowService", "Notification updates: " + updateLimiter);
+        if (runningLimiter == updateLimiter) {
+            runningLimiter = null;
+        }
         stopForeground(true);
     }
 }
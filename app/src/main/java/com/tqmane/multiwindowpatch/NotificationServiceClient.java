@@ -0,0 +1,183 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * フックしたアプリのプロセスから通知サービスへイベントを送るクライアント
+ *
+ * サービスには一度だけバインドし、以降は Messenger 経由で小さなメッセージを送る。
+ * 短い時間内に発生したイベントは、パッケージごとに最新の状態へまとめて1通で送る。
+ * サービスが前面化できずに送り返したイベントは、代替経路（startForegroundService）で送り直す。
+ * すべての呼び出しはコンストラクタで指定したスレッド（既定はメインスレッド）で行われる前提。
+ */
+final class NotificationServiceClient implements ServiceConnection {
+
+    // この時間内に届いたイベントは1通にまとめる
+    private static final long BATCH_WINDOW_MS = 50;
+
+    /**
+     * バインドできない場合の代替経路（従来の startForegroundService / stopService）
+     */
+    interface Fallback {
+        void deliver(Context context, String packageName, int event);
+    }
+
+    private final Context context;
+    private final Fallback fallback;
+    private final Handler handler;
+    private final Runnable flush = this::flush;
+    private final Map<String, Integer> pendingEvents = new LinkedHashMap<>();
+    private final Messenger replies;
+
+    private Messenger service;
+    private boolean binding;
+    private boolean bindFailed;
+
+    NotificationServiceClient(Context context, Fallback fallback) {
+        this(context, Looper.getMainLooper(), fallback);
+    }
+
+    NotificationServiceClient(Context context, Looper looper, Fallback fallback) {
+        // system_server のシステムコンテキストにはアプリケーションコンテキストがない
+        Context applicationContext = context.getApplicationContext();
+        this.context = applicationContext != null ? applicationContext : context;
+        this.handler = new Handler(looper);
+        this.fallback = fallback;
+        this.replies = new Messenger(new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MultiWindowNotificationService.MSG_EVENTS_REJECTED) {
+                    onEventsRejected(msg.getData());
+                }
+            }
+        });
+    }
+
+    /**
+     * イベントを送信キューに積む
+     * @param event MultiWindowNotificationService.EVENT_*
+     */
+    void send(String packageName, int event) {
+        if (bindFailed) {
+            fallback.deliver(context, packageName, event);
+            return;
+        }
+        pendingEvents.put(packageName, event);
+        if (service == null) {
+            bind();
+            return;
+        }
+        handler.removeCallbacks(flush);
+        handler.postDelayed(flush, BATCH_WINDOW_MS);
+    }
+
+    private void bind() {
+        if (binding) {
+            return;
+        }
+        Intent intent = new Intent(MultiWindowNotificationService.ACTION_BIND_EVENTS);
+        intent.setClassName(
+            "com.tqmane.multiwindowpatch",
+            "com.tqmane.multiwindowpatch.MultiWindowNotificationService"
+        );
+        try {
+            // 接続の通知も送信と同じスレッドで受け取る
+            binding = context.bindService(intent, Context.BIND_AUTO_CREATE, handler::post, this);
+        } catch (SecurityException e) {
+            binding = false;
+        }
+        if (!binding) {
+            HookLog.w("Could not bind notification service, using startService");
+            bindFailed = true;
+            flushToFallback();
+        }
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder binder) {
+        service = new Messenger(binder);
+        flush();
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        // BIND_AUTO_CREATE なのでサービスが再起動すれば再接続される
+        service = null;
+    }
+
+    @Override
+    public void onBindingDied(ComponentName name) {
+        service = null;
+        binding = false;
+        context.unbindService(this);
+    }
+
+    private void flush() {
+        handler.removeCallbacks(flush);
+        if (pendingEvents.isEmpty()) {
+            return;
+        }
+        if (service == null) {
+            bind();
+            return;
+        }
+
+        String[] packageNames = new String[pendingEvents.size()];
+        int[] events = new int[pendingEvents.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : pendingEvents.entrySet()) {
+            packageNames[i] = entry.getKey();
+            events[i] = entry.getValue();
+            i++;
+        }
+
+        Bundle data = new Bundle();
+        data.putStringArray(MultiWindowNotificationService.KEY_PACKAGES, packageNames);
+        data.putIntArray(MultiWindowNotificationService.KEY_EVENTS, events);
+        Message message = Message.obtain(null, MultiWindowNotificationService.MSG_APP_EVENTS);
+        message.setData(data);
+        message.replyTo = replies;
+
+        try {
+            service.send(message);
+            pendingEvents.clear();
+        } catch (RemoteException e) {
+            // 相手のプロセスが落ちている。再接続まで保持しておく
+            service = null;
+        }
+    }
+
+    /**
+     * サービスはバックグラウンドから前面化できないので、前面にいるこのプロセスから開始する
+     */
+    private void onEventsRejected(Bundle data) {
+        String[] packageNames = data.getStringArray(MultiWindowNotificationService.KEY_PACKAGES);
+        int[] events = data.getIntArray(MultiWindowNotificationService.KEY_EVENTS);
+        if (packageNames == null || events == null || packageNames.length != events.length) {
+            return;
+        }
+        for (int i = 0; i < packageNames.length; i++) {
+            fallback.deliver(context, packageNames[i], events[i]);
+        }
+    }
+
+    private void flushToFallback() {
+        for (Map.Entry<String, Integer> entry : pendingEvents.entrySet()) {
+            fallback.deliver(context, entry.getKey(), entry.getValue());
+        }
+        pendingEvents.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package com.tqmane.multiwindowpatch;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Objects;
+
+/**
+ * 通知更新のトークンバケット制限
+ *
+ * NotificationManagerService はパッケージあたり毎秒5件を超える更新を黙って捨てるため、
+ * それより少し低いレートに抑える。トークンが無い間に届いた更新は最新の状態だけを残し、
+ * 次のトークンが貯まった時点で1回だけ反映する。
+ * すべての呼び出しはメインスレッドで行われる前提。
+ */
+final class NotificationUpdateLimiter {
+
+    private static final int CAPACITY = 4;
+    private static final long REFILL_INTERVAL_MS = 250;
+
+    /**
+     * 状態を実際に通知へ反映する
+     */
+    interface Sink {
+        /**
+         * @param packageName 表示対象のパッケージ。null は通知を消す
+         * @return 反映できた場合は true（false なら次に同じ状態を要求されたときも反映し直す）
+         */
+        boolean apply(String packageName);
+    }
+
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushPending = this::flushPending;
+
+    private int tokens = CAPACITY;
+    private long lastRefill = SystemClock.uptimeMillis();
+
+    private boolean hasApplied;
+    private String appliedState;
+    private boolean hasPending;
+    private String pendingState;
+
+    // 統計
+    private long appliedCount;
+    private long unchangedCount;
+    private long coalescedCount;
+
+    NotificationUpdateLimiter(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 新しい状態を要求する
+     */
+    void submit(String state) {
+        if (hasPending) {
+            // 既に反映待ちがあるので最新の状態に置き換えるだけ
+            pendingState = state;
+            coalescedCount++;
+            return;
+        }
+        if (hasApplied && Objects.equals(state, appliedState)) {
+            unchangedCount++;
+            return;
+        }
+
+        refill();
+        if (tokens > 0) {
+            tokens--;
+            apply(state);
+        } else {
+            hasPending = true;
+            pendingState = state;
+            long elapsed = SystemClock.uptimeMillis() - lastRefill;
+            handler.postDelayed(flushPending, Math.max(0, REFILL_INTERVAL_MS - elapsed));
+        }
+    }
+
+    /**
+     * 制限を待たずに直ちに反映する（startForeground の期限がある場合など）
+     * 反映待ちの状態は破棄される
+     */
+    void applyNow(String state) {
+        if (hasPending) {
+            handler.removeCallbacks(flushPending);
+            hasPending = false;
+            pendingState = null;
+            coalescedCount++;
+        }
+        refill();
+        if (tokens > 0) {
+            tokens--;
+        }
+        apply(state);
+    }
+
+    void cancel() {
+        handler.removeCallbacks(flushPending);
+        hasPending = false;
+        pendingState = null;
+    }
+
+    long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /** 表示中と同じ状態だったため何もしなかった更新 */
+    long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /** レート制限中に後続の更新へまとめられ、反映されずに捨てられた更新 */
+    long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private void flushPending() {
+        hasPending = false;
+        String state = pendingState;
+        pendingState = null;
+        if (hasApplied && Objects.equals(state, appliedState)) {
+            unchangedCount++;
+            return;
+        }
+        refill();
+        if (tokens > 0) {
+            tokens--;
+        }
+        apply(state);
+    }
+
+    private void apply(String state) {
+        appliedCount++;
+        // 反映に失敗した状態は記録しない（同じ状態の再要求を「変化なし」として捨てないため）
+        hasApplied = sink.apply(state);
+        appliedState = hasApplied ? state : null;
+    }
+
+    private void refill() {
+        long now = SystemClock.uptimeMillis();
+        long refilled = (now - lastRefill) / REFILL_INTERVAL_MS;
+        if (refilled > 0) {
+            tokens = (int) Math.min(CAPACITY, tokens + refilled);
+            lastRefill += refilled * REFILL_INTERVAL_MS;
+        }
+        if (tokens == CAPACITY) {
+            lastRefill = now;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "applied=" + appliedCount
+            + " unchanged=" + unchangedCount
+            + " coalesced=" + coalescedCount;
+    }
+}
@@ -0,0 +1,158 @@
+package com.tqmane.multiwindowpatch;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Android 15 のパッケージ解析結果（PackageParser2.parsePackage の戻り値）の resizeMode を書き換える
+ *
+ * 解析結果は起動時のスキャンとインストール・更新時に作られ、以降 PackageManager が保持し続けるので、
+ * ここで書き換えればアクティビティごとの判定（isResizeable）をフックする必要がない。
+ * 書き換えは parsePackage がディスクのパッケージキャッシュに書き込んだ後に行うため、キャッシュには
+ * 元の値が残る。書き換えた元の値は「アプリの設定のまま」に戻したときのために記録しておく
+ * （記録はパッケージが解析されるたびに作り直すので、更新でマニフェストが変わっても古い値は残らない）。
+ * parsePackage は複数のスレッドから並行して呼ばれる。
+ */
+final class ParsedPackagePatcher {
+
+    static final int RESIZE_MODE_UNRESIZEABLE = 0;
+    static final int RESIZE_MODE_RESIZEABLE = 2;
+
+    // 書き換えたアクティビティの元の resizeMode（パッケージ名 → クラス名 → 値。内側の表は変更しない）
+    private static final Map<String, Map<String, Integer>> ORIGINAL_MODES = new ConcurrentHashMap<>();
+
+    // スレッドごとに最後に書き換えた解析結果（多重定義の一方が他方を呼ぶ場合に、外側で二重に処理しない）
+    private static final ThreadLocal<Object> LAST_PATCHED = new ThreadLocal<>();
+
+    // 解析結果のクラスはそれぞれ1種類なので、最初に解決したメソッドを使い回す
+    private static volatile PackageMethods packageMethods;
+    private static volatile ActivityMethods activityMethods;
+
+    private ParsedPackagePatcher() {}
+
+    /**
+     * PackageImpl のメソッド
+     */
+    private static final class PackageMethods {
+        final Class<?> type;
+        final Method getPackageName;
+        final Method getActivities;
+
+        PackageMethods(Class<?> type) throws NoSuchMethodException {
+            this.type = type;
+            this.getPackageName = type.getMethod("getPackageName");
+            this.getActivities = type.getMethod("getActivities");
+        }
+    }
+
+    /**
+     * ParsedActivityImpl のメソッド
+     */
+    private static final class ActivityMethods {
+        final Class<?> type;
+        final Method getName;
+        final Method getResizeMode;
+        final Method setResizeMode;
+
+        ActivityMethods(Class<?> type) throws NoSuchMethodException {
+            this.type = type;
+            this.getName = type.getMethod("getName");
+            this.getResizeMode = type.getMethod("getResizeMode");
+            this.setResizeMode = type.getMethod("setResizeMode", int.class);
+        }
+    }
+
+    /**
+     * 解析済みパッケージのアクティビティにポリシーを適用する
+     * 同じスレッドで直前に処理した解析結果なら何もしない
+     *
+     * @return resizeMode を書き換えたアクティビティの数
+     */
+    static int patch(Object parsedPackage) throws ReflectiveOperationException {
+        if (LAST_PATCHED.get() == parsedPackage) {
+            return 0;
+        }
+        LAST_PATCHED.set(parsedPackage);
+
+        PackageMethods p = packageMethods;
+        if (p == null || p.type != parsedPackage.getClass()) {
+            p = new PackageMethods(parsedPackage.getClass());
+            packageMethods = p;
+        }
+        String packageName = (String) p.getPackageName.invoke(parsedPackage);
+        List<?> activities = (List<?>) p.getActivities.invoke(parsedPackage);
+        if (activities == null || activities.isEmpty()) {
+            ORIGINAL_MODES.remove(packageName);
+            return 0;
+        }
+
+        Map<String, Integer> originals = null;
+        int patched = 0;
+        for (Object activity : activities) {
+            ActivityMethods a = activityMethods;
+            if (a == null || a.type != activity.getClass()) {
+                a = new ActivityMethods(activity.getClass());
+                activityMethods = a;
+            }
+            String className = (String) a.getName.invoke(activity);
+            int target = targetResizeMode(packageName, className);
+            if (target < 0) {
+                continue;
+            }
+            int current = (Integer) a.getResizeMode.invoke(activity);
+            if (current == target) {
+                continue;
+            }
+            a.setResizeMode.invoke(activity, target);
+            if (originals == null) {
+                originals = new HashMap<>();
+            }
+            originals.put(className, current);
+            patched++;
+        }
+        // 前回の解析時の記録は、書き換えなかったアクティビティの分も含めて置き換える
+        if (originals != null) {
+            ORIGINAL_MODES.put(packageName, originals);
+        } else {
+            ORIGINAL_MODES.remove(packageName);
+        }
+        return patched;
+    }
+
+    /**
+     * 解析時に書き換えたアクティビティの元の resizeMode（書き換えていなければ -1）
+     */
+    static int originalResizeMode(String packageName, String className) {
+        if (ORIGINAL_MODES.isEmpty()) {
+            return -1;
+        }
+        Map<String, Integer> originals = ORIGINAL_MODES.get(packageName);
+        Integer original = originals != null ? originals.get(className) : null;
+        return original != null ? original : -1;
+    }
+
+    /**
+     * 書き換えたアクティビティの数（診断用）
+     */
+    static int patchedCount() {
+        int count = 0;
+        for (Map<String, Integer> originals : ORIGINAL_MODES.values()) {
+            count += originals.size();
+        }
+        return count;
+    }
+
+    private static int targetResizeMode(String packageName, String className) {
+        switch (ResizePolicies.policyFor(packageName, className)) {
+            case ResizePolicyTable.POLICY_FORCE_RESIZEABLE:
+                return RESIZE_MODE_RESIZEABLE;
+            case ResizePolicyTable.POLICY_FORCE_NONRESIZEABLE:
+                return RESIZE_MODE_UNRESIZEABLE;
+            default:
+                return -1;
+        }
+    }
+}
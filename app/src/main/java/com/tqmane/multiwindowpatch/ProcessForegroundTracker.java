@@ -0,0 +1,73 @@
+package com.tqmane.multiwindowpatch;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * フックしたアプリのプロセス内で、再開中(resumed)のアクティビティ数を数える
+ *
+ * 通知サービスへの連絡はプロセスの前面状態が変わったとき（0→1 / 1→0）だけ行う。
+ * 画面回転や同一アプリ内の画面遷移では一瞬 0 になるため、
+ * バックグラウンドへの移行は少し遅らせてから確定させる。
+ * すべての呼び出しはメインスレッドで行われる前提。
+ */
+final class ProcessForegroundTracker {
+
+    // androidx.lifecycle.ProcessLifecycleOwner と同じ猶予
+    private static final long BACKGROUND_DELAY_MS = 700;
+
+    /**
+     * プロセスの前面状態が変わったときに呼ばれる
+     */
+    interface Listener {
+        void onForeground(Context context);
+        /**
+         * @param finishing 最後に一時停止したアクティビティが終了処理中だったか
+         */
+        void onBackground(Context context, boolean finishing);
+    }
+
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable dispatchBackground = this::dispatchBackground;
+
+    private int resumedCount;
+    private boolean foreground;
+    private Context lastContext;
+    private boolean lastFinishing;
+
+    ProcessForegroundTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    void onActivityResumed(Activity activity) {
+        resumedCount++;
+        handler.removeCallbacks(dispatchBackground);
+        if (!foreground) {
+            foreground = true;
+            listener.onForeground(activity.getApplicationContext());
+        }
+    }
+
+    void onActivityPaused(Activity activity) {
+        if (resumedCount == 0) {
+            return;
+        }
+        resumedCount--;
+        if (resumedCount == 0) {
+            lastContext = activity.getApplicationContext();
+            lastFinishing = activity.isFinishing();
+            handler.postDelayed(dispatchBackground, BACKGROUND_DELAY_MS);
+        }
+    }
+
+    private void dispatchBackground() {
+        if (resumedCount == 0 && foreground) {
+            foreground = false;
+            listener.onBackground(lastContext, lastFinishing);
+        }
+        lastContext = null;
+    }
+}
@@ -0,0 +1,168 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.pm.ActivityInfo;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+/**
+ * system_server でリサイズモードを書き換えるフックのコールバック
+ *
+ * 参照するのは ActivityInfo と XC_MethodHook、Android に依存しないポリシーの表だけにしてあり、
+ * benchmark モジュールのリプレイ（HookReplay）が代役のクラスで同じコールバックを実行して計測する。
+ * フックの登録（対象のメソッドの解決）は MainHook が行う。
+ */
+final class ResizeHooks {
+
+    private ResizeHooks() {}
+
+    /**
+     * ActivityInfo.isResizeable: ポリシーに応じた結果を返す
+     */
+    static final class IsResizeable extends XC_MethodHook {
+        private final HookStats stats;
+
+        IsResizeable(HookStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+            long startNanos = System.nanoTime();
+            // 非常に頻繁に呼ばれるため、ロックせずにメモを引く（当たればメモリ確保もしない）
+            switch (ResizePolicies.policyFor((ActivityInfo) param.thisObject)) {
+                case ResizePolicyTable.POLICY_FORCE_RESIZEABLE:
+                    // trueを返してマルチウィンドウを有効化
+                    param.setResult(true);
+                    break;
+                case ResizePolicyTable.POLICY_FORCE_NONRESIZEABLE:
+                    param.setResult(false);
+                    break;
+                default:
+                    // 本来の結果をそのまま使う
+                    break;
+            }
+            stats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * PackageParser2.parsePackage: 解析結果のアクティビティの resizeMode を書き換える
+     */
+    static final class ParsePackage extends XC_MethodHook {
+        private final HookStats stats;
+
+        ParsePackage(HookStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+            Object parsedPackage = param.getResult();
+            if (parsedPackage == null) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                ParsedPackagePatcher.patch(parsedPackage);
+            } catch (ReflectiveOperationException e) {
+                HookLog.w("Failed to patch parsed package", e);
+            }
+            stats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * ActivityRecord のコンストラクタ: 引数の ActivityInfo を書き換える
+     * （MainHook は計測結果のレシーバーの登録を加えたサブクラスを使う）
+     */
+    static class ActivityRecordInit extends XC_MethodHook {
+        private final int activityInfoIndex;
+        private final HookFieldAccessors fieldAccessors;
+        private final HookStats stats;
+
+        ActivityRecordInit(int activityInfoIndex, HookFieldAccessors fieldAccessors, HookStats stats) {
+            this.activityInfoIndex = activityInfoIndex;
+            this.fieldAccessors = fieldAccessors;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+            long startNanos = System.nanoTime();
+            ResizePolicies.reloadIfChanged();
+            modifyActivityInfo(fieldAccessors, param.args[activityInfoIndex]);
+            stats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * PackageParser.generateActivityInfo: 生成された ActivityInfo の resizeMode を書き換える
+     */
+    static final class GenerateActivityInfo extends XC_MethodHook {
+        private final HookFieldAccessors fieldAccessors;
+        private final HookStats stats;
+
+        GenerateActivityInfo(HookFieldAccessors fieldAccessors, HookStats stats) {
+            this.fieldAccessors = fieldAccessors;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+            long startNanos = System.nanoTime();
+            ActivityInfo activityInfo = (ActivityInfo) param.getResult();
+
+            if (activityInfo != null && fieldAccessors != null) {
+                int resizeMode = resizeModeFor(activityInfo);
+                if (resizeMode >= 0) {
+                    fieldAccessors.setResizeMode(activityInfo, resizeMode);
+                }
+
+                param.setResult(activityInfo);
+            }
+            stats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * ActivityInfo を修正してマルチウィンドウを有効化
+     */
+    static void modifyActivityInfo(HookFieldAccessors fieldAccessors, Object info) {
+        try {
+            if (info != null && fieldAccessors != null) {
+                int resizeMode = resizeModeFor((ActivityInfo) info);
+                if (resizeMode < 0) {
+                    return;
+                }
+
+                // resizeMode フィールドを変更
+                fieldAccessors.setResizeMode(info, resizeMode);
+
+                // ApplicationInfo のフラグも変更
+                Object appInfo = fieldAccessors.getApplicationInfo(info);
+                if (appInfo != null) {
+                    int flags = fieldAccessors.getFlags(appInfo);
+                    // FLAG_SUPPORTS_SCREEN_DENSITIES などを追加
+                    fieldAccessors.setFlags(appInfo, flags);
+                }
+            }
+        } catch (Throwable t) {
+            // エラーは無視（すべてのケースで適用できるわけではないため）
+        }
+    }
+
+    /**
+     * ポリシーに応じて設定すべき resizeMode を返す（変更しない場合は -1）
+     */
+    static int resizeModeFor(ActivityInfo info) {
+        switch (ResizePolicies.policyFor(info)) {
+            case ResizePolicyTable.POLICY_FORCE_RESIZEABLE:
+                return ParsedPackagePatcher.RESIZE_MODE_RESIZEABLE;
+            case ResizePolicyTable.POLICY_FORCE_NONRESIZEABLE:
+                return ParsedPackagePatcher.RESIZE_MODE_UNRESIZEABLE;
+            default:
+                // 起動後に「アプリの設定のまま」に変えた場合は、解析時に書き換える前の値に戻す
+                return ParsedPackagePatcher.originalResizeMode(info.packageName, info.name);
+        }
+    }
+}
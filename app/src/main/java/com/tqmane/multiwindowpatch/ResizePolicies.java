@@ -0,0 +1,186 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+/**
+ * system_server で参照するリサイズポリシーの公開窓口
+ *
+ * 設定はモジュールの SharedPreferences（RESIZE_POLICY_PREFS）から読み込み、
+ * 新しい表は AtomicReference の差し替えで公開する。フックからの参照はロックしない。
+ * 結果はコンポーネントごとにメモ化し、パッケージが更新されるまで再利用する。
+ * （更新されると APK のインストール先 sourceDir が変わるので、それで判定する）
+ */
+final class ResizePolicies {
+
+    static final String MODULE_PACKAGE = "com.tqmane.multiwindowpatch";
+
+    /** キーはパッケージ名または "パッケージ名/クラス名"、値は ResizePolicyTable.POLICY_* */
+    static final String RESIZE_POLICY_PREFS = "resize_policy";
+
+    // 設定ファイルの変更確認は ActivityRecord 生成時に、この間隔より頻繁には行わない
+    private static final long RELOAD_CHECK_INTERVAL_MS = 2000;
+
+    // メモのセット数（2のべき乗）。1セットに2件入る 2-way セットアソシアティブのキャッシュで、
+    // よく呼ばれるアクティビティ同士が同じセットに入っても互いに追い出さない
+    private static final int MEMO_SETS = 512;
+    private static final int MEMO_WAYS = 2;
+
+    private static final AtomicReference<Published> CURRENT =
+        new AtomicReference<>(new Published(ResizePolicyTable.EMPTY));
+
+    private static XSharedPreferences prefs;
+    private static volatile long lastReloadCheck;
+
+    private ResizePolicies() {}
+
+    /**
+     * 公開中の表とそのメモ
+     */
+    private static final class Published {
+        final ResizePolicyTable table;
+        // セット s の i 番目は memo[s * MEMO_WAYS + i]（0 番目が新しい方）
+        final Memo[] memo = new Memo[MEMO_SETS * MEMO_WAYS];
+
+        Published(ResizePolicyTable table) {
+            this.table = table;
+        }
+    }
+
+    /**
+     * コンポーネントごとのメモ（不変。スロットへの書き込みは競合しても害がない）
+     */
+    private static final class Memo {
+        final String packageName;
+        final String className;
+        final String sourceDir;
+        final byte policy;
+
+        Memo(String packageName, String className, String sourceDir, byte policy) {
+            this.packageName = packageName;
+            this.className = className;
+            this.sourceDir = sourceDir;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * ActivityInfo に適用するポリシーを返す
+     * メモに当たればメモリ確保もロックも行わない
+     */
+    static byte policyFor(ActivityInfo info) {
+        Published published = CURRENT.get();
+        if (published.table.size() == 0) {
+            return ResizePolicyTable.POLICY_FORCE_RESIZEABLE;
+        }
+
+        String packageName = info.packageName;
+        String className = info.name;
+        ApplicationInfo appInfo = info.applicationInfo;
+        String sourceDir = appInfo != null ? appInfo.sourceDir : null;
+
+        Memo[] memos = published.memo;
+        int base = ((31 * hash(packageName) + hash(className)) & (MEMO_SETS - 1)) * MEMO_WAYS;
+        Memo first = memos[base];
+        if (matches(first, packageName, className, sourceDir)) {
+            return first.policy;
+        }
+        Memo second = memos[base + 1];
+        if (matches(second, packageName, className, sourceDir)) {
+            return second.policy;
+        }
+
+        // 外れたときだけ確保する。古い方を捨て、新しいものを先頭に入れる
+        // （別々のスロットへの書き込みなので、競合しても一方のメモが消えるだけ）
+        byte policy = published.table.lookup(packageName, className);
+        memos[base + 1] = first;
+        memos[base] = new Memo(packageName, className, sourceDir, policy);
+        return policy;
+    }
+
+    private static boolean matches(Memo memo, String packageName, String className, String sourceDir) {
+        return memo != null
+            && equal(memo.sourceDir, sourceDir)
+            && equal(memo.className, className)
+            && equal(memo.packageName, packageName);
+    }
+
+    /**
+     * パッケージ名とクラス名で直接引く（パッケージの解析時など、1コンポーネントに1回だけの場所用）
+     */
+    static byte policyFor(String packageName, String className) {
+        Published published = CURRENT.get();
+        if (published.table.size() == 0) {
+            return ResizePolicyTable.POLICY_FORCE_RESIZEABLE;
+        }
+        return published.table.lookup(packageName, className);
+    }
+
+    /**
+     * 新しい表を公開する（古いメモも同時に捨てられる）
+     */
+    static void publish(ResizePolicyTable table) {
+        CURRENT.set(new Published(table));
+    }
+
+    /**
+     * モジュールの設定を読み込んで公開する（フック登録時）
+     */
+    static synchronized void load() {
+        // ファイルはモジュール側が MODE_WORLD_READABLE で書く（system_server からは権限を変えられない）
+        prefs = new XSharedPreferences(MODULE_PACKAGE, RESIZE_POLICY_PREFS);
+        publishFromPrefs();
+    }
+
+    /**
+     * 設定ファイルが更新されていれば読み直す
+     * ActivityRecord の生成時など、ホットパスではない場所から呼ぶ
+     */
+    static void reloadIfChanged() {
+        long now = SystemClock.uptimeMillis();
+        if (now - lastReloadCheck < RELOAD_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastReloadCheck = now;
+        synchronized (ResizePolicies.class) {
+            if (prefs != null && prefs.hasFileChanged()) {
+                prefs.reload();
+                publishFromPrefs();
+            }
+        }
+    }
+
+    private static void publishFromPrefs() {
+        Map<String, Byte> packages = new HashMap<>();
+        Map<String, Byte> components = new HashMap<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof Integer)) {
+                continue;
+            }
+            byte policy = (byte) (int) (Integer) entry.getValue();
+            if (entry.getKey().indexOf('/') >= 0) {
+                components.put(entry.getKey(), policy);
+            } else {
+                packages.put(entry.getKey(), policy);
+            }
+        }
+        ResizePolicyTable table = ResizePolicyTable.build(packages, components);
+        publish(table);
+        HookLog.i("Loaded resize policies for %d packages", table.size());
+    }
+
+    private static int hash(String value) {
+        return value != null ? value.hashCode() : 0;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,133 @@
+package com.tqmane.multiwindowpatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * パッケージ・コンポーネント単位のリサイズポリシー表（不変）
+ *
+ * system_server の ActivityInfo.isResizeable フックから毎回参照されるため、
+ * 参照はロックもメモリ確保もしない。パッケージ名はオープンアドレス法の配列、
+ * コンポーネントはパッケージごとのソート済み配列で保持する。
+ */
+final class ResizePolicyTable {
+
+    /** 強制的にリサイズ可能にする（未設定時の既定動作） */
+    static final byte POLICY_FORCE_RESIZEABLE = 0;
+    /** アプリ本来の設定のまま変更しない */
+    static final byte POLICY_LEAVE_ALONE = 1;
+    /** 強制的にリサイズ不可にする */
+    static final byte POLICY_FORCE_NONRESIZEABLE = 2;
+
+    static final ResizePolicyTable EMPTY = new ResizePolicyTable(new HashMap<>(), new HashMap<>());
+
+    // パッケージ名のオープンアドレス表（長さは2のべき乗）
+    private final String[] packageKeys;
+    private final byte[] packagePolicies;
+    // パッケージごとのコンポーネント（クラス名昇順）
+    private final String[][] componentNames;
+    private final byte[][] componentPolicies;
+    private final int mask;
+    private final int size;
+
+    /**
+     * @param packages   パッケージ名 → ポリシー
+     * @param components "パッケージ名/クラス名" → ポリシー（".Main" のような短縮形も可）
+     */
+    private ResizePolicyTable(Map<String, Byte> packages, Map<String, Byte> components) {
+        Map<String, TreeMap<String, Byte>> byPackage = new HashMap<>();
+        for (Map.Entry<String, Byte> entry : components.entrySet()) {
+            String key = entry.getKey();
+            int slash = key.indexOf('/');
+            if (slash <= 0 || slash == key.length() - 1) {
+                continue;
+            }
+            String packageName = key.substring(0, slash);
+            String className = key.substring(slash + 1);
+            if (className.startsWith(".")) {
+                className = packageName + className;
+            }
+            byPackage.computeIfAbsent(packageName, k -> new TreeMap<>())
+                .put(className, entry.getValue());
+        }
+
+        List<String> allPackages = new ArrayList<>(packages.keySet());
+        for (String packageName : byPackage.keySet()) {
+            if (!packages.containsKey(packageName)) {
+                allPackages.add(packageName);
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(4, allPackages.size() * 2 - 1)) << 1;
+        packageKeys = new String[capacity];
+        packagePolicies = new byte[capacity];
+        componentNames = new String[capacity][];
+        componentPolicies = new byte[capacity][];
+        mask = capacity - 1;
+        size = allPackages.size();
+
+        for (String packageName : allPackages) {
+            int slot = packageName.hashCode() & mask;
+            while (packageKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            packageKeys[slot] = packageName;
+            Byte policy = packages.get(packageName);
+            packagePolicies[slot] = policy != null ? policy : POLICY_FORCE_RESIZEABLE;
+
+            TreeMap<String, Byte> entries = byPackage.get(packageName);
+            if (entries != null) {
+                String[] names = new String[entries.size()];
+                byte[] policies = new byte[entries.size()];
+                int i = 0;
+                for (Map.Entry<String, Byte> entry : entries.entrySet()) {
+                    names[i] = entry.getKey();
+                    policies[i] = entry.getValue();
+                    i++;
+                }
+                componentNames[slot] = names;
+                componentPolicies[slot] = policies;
+            }
+        }
+    }
+
+    static ResizePolicyTable build(Map<String, Byte> packages, Map<String, Byte> components) {
+        if (packages.isEmpty() && components.isEmpty()) {
+            return EMPTY;
+        }
+        return new ResizePolicyTable(packages, components);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * ポリシーを引く。コンポーネント指定がパッケージ指定より優先される
+     */
+    byte lookup(String packageName, String className) {
+        if (size == 0 || packageName == null) {
+            return POLICY_FORCE_RESIZEABLE;
+        }
+        int slot = packageName.hashCode() & mask;
+        String key;
+        while ((key = packageKeys[slot]) != null) {
+            if (key.equals(packageName)) {
+                String[] names = componentNames[slot];
+                if (names != null && className != null) {
+                    int index = Arrays.binarySearch(names, className);
+                    if (index >= 0) {
+                        return componentPolicies[slot][index];
+                    }
+                }
+                return packagePolicies[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return POLICY_FORCE_RESIZEABLE;
+    }
+}
@@ -0,0 +1,73 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * 一覧の右端に並べる見出しの索引
+ * なぞった位置の見出しを通知し、呼び出し側がその先頭へスクロールする
+ */
+public class SectionIndexBar extends LinearLayout {
+    
+    public interface OnSectionSelectedListener {
+        void onSectionSelected(int section);
+    }
+    
+    private OnSectionSelectedListener listener;
+    private int selectedSection = -1;
+    
+    public SectionIndexBar(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setOrientation(VERTICAL);
+        setGravity(Gravity.CENTER_HORIZONTAL);
+    }
+    
+    public void setOnSectionSelectedListener(OnSectionSelectedListener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * 見出しを差し替える（2つ未満なら隠す）
+     */
+    public void setSections(String[] sections) {
+        removeAllViews();
+        for (String section : sections) {
+            TextView label = new TextView(getContext());
+            label.setText(section);
+            label.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+            label.setTextColor(0xFF2196F3);
+            label.setGravity(Gravity.CENTER);
+            addView(label, new LayoutParams(LayoutParams.WRAP_CONTENT, 0, 1f));
+        }
+        setVisibility(sections.length >= 2 ? VISIBLE : GONE);
+    }
+    
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int count = getChildCount();
+        if (count == 0) {
+            return false;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                int section = (int) (event.getY() * count / Math.max(1, getHeight()));
+                section = Math.max(0, Math.min(section, count - 1));
+                if (section != selectedSection) {
+                    selectedSection = section;
+                    if (listener != null) {
+                        listener.onSectionSelected(section);
+                    }
+                }
+                return true;
+            default:
+                selectedSection = -1;
+                return true;
+        }
+    }
+}
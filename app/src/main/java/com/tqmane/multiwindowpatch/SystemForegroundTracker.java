@@ -0,0 +1,130 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.Set;
+
+/**
+ * system_server で最前面の再開中アクティビティの変化を監視し、通知サービスへ伝える
+ * （アプリごとのライフサイクルのフックの代わり）
+ *
+ * フックは WM のロックを保持したまま呼ばれるため、ここではパッケージの比較と記録だけを行い、
+ * サービスとの通信は専用のスレッドに任せる。同じアプリ内の画面遷移では何も送らない。
+ * 通知サービスはシステムユーザーで動いているので、他のユーザーのアプリは対象外。
+ * フックは常に登録しておき、設定でモードが無効なあいだはイベントを送らない。
+ */
+final class SystemForegroundTracker {
+
+    private final Set<String> excludedPackages;
+    private final NotificationServiceClient.Fallback fallback;
+    private final Handler handler;
+
+    // ActivityRecord のフィールド（最初の呼び出しで解決）
+    private Field packageNameField;
+    private Field userIdField;
+    private Field finishingField;
+    private Context context;
+
+    // 以下はフックのスレッド（WM のロック内）からのみ触る
+    // 前面として伝えたアプリ（モードが無効なあいだは null）
+    private String topPackage;
+    private WeakReference<Object> topRecord = new WeakReference<>(null);
+
+    // 以下は handler のスレッドからのみ触る
+    private NotificationServiceClient client;
+
+    SystemForegroundTracker(Set<String> excludedPackages,
+            NotificationServiceClient.Fallback fallback) {
+        this.excludedPackages = excludedPackages;
+        this.fallback = fallback;
+
+        HandlerThread thread = new HandlerThread("MultiWindowPatch-foreground");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * 最前面の再開中アクティビティが変わった（ActivityTaskManagerService の中から呼ばれる）
+     *
+     * @param service ActivityTaskManagerService
+     * @param record 新しく最前面になった ActivityRecord（null のこともある）
+     * @param enabled 設定でこのモードが有効か
+     */
+    void onTopResumedActivityChanged(Object service, Object record, boolean enabled)
+            throws ReflectiveOperationException {
+        if (record == null) {
+            return;
+        }
+        if (packageNameField == null) {
+            resolveFields(service, record.getClass());
+        }
+
+        String packageName = (String) packageNameField.get(record);
+        boolean tracked = userIdField.getInt(record) == 0 && !excludedPackages.contains(packageName);
+        Object previousRecord = topRecord.get();
+        topRecord = new WeakReference<>(record);
+        if (!tracked) {
+            packageName = null;
+        }
+        if (!enabled) {
+            // 無効にされたら、前面として伝えたアプリはバックグラウンドに戻す
+            // （以降はアプリのプロセスのフックが伝える。有効にされると現在のアプリから伝え直す）
+            if (topPackage != null) {
+                post(topPackage, MultiWindowNotificationService.EVENT_BACKGROUND);
+                topPackage = null;
+            }
+            return;
+        }
+        if (packageName == null ? topPackage == null : packageName.equals(topPackage)) {
+            return;
+        }
+
+        String previous = topPackage;
+        topPackage = packageName;
+        if (previous != null) {
+            // 戻るキーなどで閉じられた場合は終了、ホームや別のアプリへの切り替えならバックグラウンド
+            boolean finishing = previousRecord != null && finishingField.getBoolean(previousRecord);
+            post(previous, finishing
+                ? MultiWindowNotificationService.EVENT_FINISHED
+                : MultiWindowNotificationService.EVENT_BACKGROUND);
+        }
+        if (packageName != null) {
+            post(packageName, MultiWindowNotificationService.EVENT_FOREGROUND);
+        }
+    }
+
+    private void resolveFields(Object service, Class<?> recordClass) throws ReflectiveOperationException {
+        Field contextField = findField(service.getClass(), "mContext");
+        context = (Context) contextField.get(service);
+        userIdField = findField(recordClass, "mUserId");
+        finishingField = findField(recordClass, "finishing");
+        packageNameField = findField(recordClass, "packageName");
+    }
+
+    private static Field findField(Class<?> clazz, String name) throws NoSuchFieldException {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // 親クラスを探す
+            }
+        }
+        throw new NoSuchFieldException(clazz.getName() + "." + name);
+    }
+
+    private void post(String packageName, int event) {
+        Context serviceContext = context;
+        handler.post(() -> {
+            if (client == null) {
+                client = new NotificationServiceClient(serviceContext, handler.getLooper(), fallback);
+            }
+            client.send(packageName, event);
+        });
+    }
+}
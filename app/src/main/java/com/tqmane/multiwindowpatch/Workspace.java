@@ -0,0 +1,147 @@
+package com.tqmane.multiwindowpatch;
+
+import android.graphics.Rect;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 名前付きワークスペース（まとめて起動する2〜3個のアプリと、それぞれの表示位置）
+ */
+public class Workspace {
+
+    private static final String TAG = "MultiWindowPatch";
+
+    private static final String FILE_NAME = "workspaces.bin";
+    private static final int MAGIC = 0x4D575057; // "MWPW"
+    private static final int FORMAT_VERSION = 1;
+
+    public static final int MIN_APPS = 2;
+    public static final int MAX_APPS = 3;
+
+    /**
+     * ワークスペース内の1つのアプリ
+     */
+    public static class Entry {
+        public final String packageName;
+        /** 起動時の表示位置。null ならシステムに任せる */
+        public final Rect bounds;
+
+        public Entry(String packageName, Rect bounds) {
+            this.packageName = packageName;
+            this.bounds = bounds;
+        }
+    }
+
+    public final String name;
+    public final List<Entry> entries;
+
+    public Workspace(String name, List<Entry> entries) {
+        this.name = name;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * 画面を横（縦長の画面なら縦）に等分した表示位置を割り当てる
+     */
+    public static Workspace splitEvenly(String name, List<String> packageNames, Rect screen) {
+        List<Entry> entries = new ArrayList<>();
+        int count = packageNames.size();
+        boolean columns = screen.width() >= screen.height();
+        for (int i = 0; i < count; i++) {
+            Rect bounds = columns
+                ? new Rect(screen.left + screen.width() * i / count, screen.top,
+                    screen.left + screen.width() * (i + 1) / count, screen.bottom)
+                : new Rect(screen.left, screen.top + screen.height() * i / count,
+                    screen.right, screen.top + screen.height() * (i + 1) / count);
+            entries.add(new Entry(packageNames.get(i), bounds));
+        }
+        return new Workspace(name, entries);
+    }
+
+    private static AtomicFile fileIn(File dir) {
+        return new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * 保存済みのワークスペースを読み込む。存在しないか形式が異なる場合は空
+     */
+    public static List<Workspace> readAll(File dir) {
+        AtomicFile file = fileIn(dir);
+        List<Workspace> workspaces = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return workspaces;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                List<Entry> entries = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    String packageName = in.readUTF();
+                    Rect bounds = null;
+                    if (in.readBoolean()) {
+                        bounds = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                    }
+                    entries.add(new Entry(packageName, bounds));
+                }
+                workspaces.add(new Workspace(name, entries));
+            }
+        } catch (FileNotFoundException e) {
+            // 初回
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable workspaces: " + e.getMessage());
+            workspaces.clear();
+        }
+        return workspaces;
+    }
+
+    /**
+     * ワークスペースの一覧を書き込む（途中で失敗しても以前の内容は壊れない）
+     */
+    public static void writeAll(File dir, List<Workspace> workspaces) {
+        AtomicFile file = fileIn(dir);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(workspaces.size());
+            for (Workspace workspace : workspaces) {
+                out.writeUTF(workspace.name);
+                out.writeInt(workspace.entries.size());
+                for (Entry entry : workspace.entries) {
+                    out.writeUTF(entry.packageName);
+                    out.writeBoolean(entry.bounds != null);
+                    if (entry.bounds != null) {
+                        out.writeInt(entry.bounds.left);
+                        out.writeInt(entry.bounds.top);
+                        out.writeInt(entry.bounds.right);
+                        out.writeInt(entry.bounds.bottom);
+                    }
+                }
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write workspaces: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+import com.tqmane.multiwindowpatch.AppCatalogCodec;
+import com.tqmane.multiwindowpatch.AppCatalogStore;
+import com.tqmane.multiwindowpatch.AppCollation;
+import com.tqmane.multiwindowpatch.AppInfo;
+import com.tqmane.multiwindowpatch.AppOrdering;
+import com.tqmane.multiwindowpatch.AppSearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * アプリ一覧のデータ処理を件数ごとに計測する
+ *
+ * - load:        スナップショットのバイト列から一覧を復元し、ストアと検索インデックスを作る
+ * - collate:     照合キーと見出しを計算する（ローダーが一覧の構築時に1回行う）
+ * - sort:        シャッフルした一覧を計算済みの照合キーで並び替える
+ * - upsert:      ストアに1件の更新を反映する（パッケージ更新の通知1回分）
+ * - filter:      前回の結果を使えないクエリで全件を検索する（結果は行番号の配列）
+ * - filterTyping: 1文字ずつ入力したときの検索（インクリメンタル絞り込み）
+ *
+ * 割り当て量は -prof gc で確認する。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    private static final String[] QUERIES = {"cam", "メモ", "google", "ちず"};
+    private static final String TYPED_QUERY = "calendar";
+
+    @Param({"500", "5000", "50000"})
+    public int size;
+
+    private byte[] snapshot;
+    private List<AppInfo> shuffled;
+    private AppCatalogStore store;
+    private List<AppInfo> update;
+    private AppSearchIndex index;
+    private AppCollation collation;
+    private int queryIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<AppInfo> apps = SyntheticCatalog.generate(size, 42);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            AppCatalogCodec.writeApps(out, apps);
+        }
+        snapshot = bytes.toByteArray();
+
+        collation = new AppCollation(Locale.JAPAN);
+        collation.assign(apps);
+
+        shuffled = new ArrayList<>(apps);
+        Collections.shuffle(shuffled, new Random(7));
+
+        store = AppCatalogStore.of(apps);
+        index = AppSearchIndex.build(store);
+
+        // 一覧の中ほどのアプリがバージョンアップした想定
+        AppInfo updated = store.toAppInfo(size / 2);
+        update = Collections.singletonList(new AppInfo(updated.packageName, updated.appName,
+            updated.versionCode + 1, updated.lastUpdateTime + 1, updated.isSystemApp));
+        collation.assign(update);
+    }
+
+    @Benchmark
+    public AppSearchIndex load() throws IOException {
+        List<AppInfo> apps = AppCatalogCodec.readApps(
+            new DataInputStream(new ByteArrayInputStream(snapshot)));
+        // 照合キーの計算は collate で別に計測する
+        return AppSearchIndex.build(AppCatalogStore.of(apps));
+    }
+
+    @Benchmark
+    public List<AppInfo> collate() {
+        collation.assign(shuffled);
+        return shuffled;
+    }
+
+    @Benchmark
+    public List<AppInfo> sort() {
+        List<AppInfo> apps = new ArrayList<>(shuffled);
+        AppOrdering.sortByName(apps);
+        return apps;
+    }
+
+    @Benchmark
+    public AppCatalogStore upsert() {
+        return store.withChanges(update, Collections.emptyList());
+    }
+
+    @Benchmark
+    public int[] filter() {
+        // 互いに前置関係のないクエリを順に使い、毎回全件を走査させる
+        queryIndex = (queryIndex + 1) % QUERIES.length;
+        return index.search(QUERIES[queryIndex]);
+    }
+
+    @Benchmark
+    public int filterTyping() {
+        int total = 0;
+        for (int length = 1; length <= TYPED_QUERY.length(); length++) {
+            total += index.search(TYPED_QUERY.substring(0, length)).length;
+        }
+        index.search("");
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+import com.tqmane.multiwindowpatch.HookFieldAccessors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MainHook.modifyActivityInfo と同じフィールド操作
+ * （resizeMode の書き込み、applicationInfo と flags の読み書き）のコスト比較
+ *
+ * - xposedHelpers: 従来の XposedHelpers による名前引き
+ * - preResolved:   フック登録時に解決した HookFieldAccessors
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessBenchmark {
+
+    private static final int RESIZE_MODE_RESIZEABLE = 2;
+
+    private StubActivityInfo activityInfo;
+    private HookFieldAccessors accessors;
+
+    @Setup
+    public void setUp() throws NoSuchFieldException {
+        activityInfo = new StubActivityInfo();
+        activityInfo.packageName = "com.example.app";
+        activityInfo.name = "com.example.app.MainActivity";
+        activityInfo.applicationInfo = new StubApplicationInfo();
+        activityInfo.applicationInfo.packageName = "com.example.app";
+        activityInfo.applicationInfo.flags = 0x00880000;
+
+        accessors = HookFieldAccessors.resolve(StubActivityInfo.class);
+    }
+
+    @Benchmark
+    public int xposedHelpers() {
+        XposedHelpersModel.setIntField(activityInfo, "resizeMode", RESIZE_MODE_RESIZEABLE);
+        Object appInfo = XposedHelpersModel.getObjectField(activityInfo, "applicationInfo");
+        int flags = XposedHelpersModel.getIntField(appInfo, "flags");
+        XposedHelpersModel.setIntField(appInfo, "flags", flags);
+        return flags;
+    }
+
+    @Benchmark
+    public int preResolved() throws IllegalAccessException {
+        accessors.setResizeMode(activityInfo, RESIZE_MODE_RESIZEABLE);
+        Object appInfo = accessors.getApplicationInfo(activityInfo);
+        int flags = accessors.getFlags(appInfo);
+        accessors.setFlags(appInfo, flags);
+        return flags;
+    }
+}
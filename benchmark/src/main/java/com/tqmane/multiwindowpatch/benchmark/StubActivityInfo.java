@@ -0,0 +1,14 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+/**
+ * android.content.pm.ActivityInfo の代役
+ * フックが触るフィールドだけを同じ名前・型で持つ
+ */
+public class StubActivityInfo {
+    public String packageName;
+    public String name;
+    public StubApplicationInfo applicationInfo;
+    public int flags;
+    public int screenOrientation;
+    public int resizeMode;
+}
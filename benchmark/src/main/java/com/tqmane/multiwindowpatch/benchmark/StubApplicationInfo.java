@@ -0,0 +1,11 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+/**
+ * android.content.pm.ApplicationInfo の代役
+ */
+public class StubApplicationInfo {
+    public String packageName;
+    public String sourceDir;
+    public int flags;
+    public int targetSdkVersion;
+}
@@ -0,0 +1,46 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+import com.tqmane.multiwindowpatch.AppInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の架空のアプリ一覧
+ * 英語・カタカナ・ひらがな・全角英字のアプリ名を混ぜ、実機の一覧に近い文字種にする
+ */
+final class SyntheticCatalog {
+
+    private static final String[] WORDS = {
+        "Camera", "Chrome", "Calendar", "Clock", "Maps", "Music", "Notes", "Photos",
+        "Settings", "Wallet", "Weather", "Mail", "Files", "Player", "Reader", "Studio",
+        "カメラ", "カレンダー", "メモ", "ミュージック", "フォト", "ウォレット", "ニュース",
+        "ちず", "でんたく", "ｔｗｉｔｔｅｒ", "ＹｏｕＴｕｂｅ"
+    };
+
+    private static final String[] VENDORS = {
+        "google", "android", "example", "samsung", "sony", "line", "rakuten", "tqmane"
+    };
+
+    private SyntheticCatalog() {}
+
+    /**
+     * 決まった seed で size 件を生成する（パッケージ名は重複しない）
+     */
+    static List<AppInfo> generate(int size, long seed) {
+        Random random = new Random(seed);
+        List<AppInfo> apps = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String first = WORDS[random.nextInt(WORDS.length)];
+            String second = WORDS[random.nextInt(WORDS.length)];
+            String vendor = VENDORS[random.nextInt(VENDORS.length)];
+            String appName = random.nextInt(3) == 0 ? first : first + " " + second;
+            String packageName = "com." + vendor + ".app" + i;
+            apps.add(new AppInfo(packageName, appName,
+                random.nextInt(100_000), 1_600_000_000_000L + random.nextInt(1 << 30),
+                random.nextInt(5) == 0));
+        }
+        return apps;
+    }
+}
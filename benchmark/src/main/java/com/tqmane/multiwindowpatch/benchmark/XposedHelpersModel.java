@@ -0,0 +1,81 @@
+package com.tqmane.multiwindowpatch.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+
+/**
+ * XposedHelpers のフィールドアクセスと同じ手順を再現したもの（比較用）
+ *
+ * 呼び出しごとに「クラス名#フィールド名」のキーを連結し、
+ * HashMap のキャッシュを引いてから Field を操作する。
+ */
+final class XposedHelpersModel {
+
+    private static final HashMap<String, Field> fieldCache = new HashMap<>();
+
+    private XposedHelpersModel() {}
+
+    static Field findField(Class<?> clazz, String fieldName) {
+        String fullFieldName = clazz.getName() + '#' + fieldName;
+
+        if (fieldCache.containsKey(fullFieldName)) {
+            Field field = fieldCache.get(fullFieldName);
+            if (field == null) {
+                throw new NoSuchFieldError(fullFieldName);
+            }
+            return field;
+        }
+
+        try {
+            Field field = findFieldRecursive(clazz, fieldName);
+            field.setAccessible(true);
+            fieldCache.put(fullFieldName, field);
+            return field;
+        } catch (NoSuchFieldException e) {
+            fieldCache.put(fullFieldName, null);
+            throw new NoSuchFieldError(fullFieldName);
+        }
+    }
+
+    static void setIntField(Object obj, String fieldName, int value) {
+        try {
+            findField(obj.getClass(), fieldName).setInt(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
+    }
+
+    static int getIntField(Object obj, String fieldName) {
+        try {
+            return findField(obj.getClass(), fieldName).getInt(obj);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
+    }
+
+    static Object getObjectField(Object obj, String fieldName) {
+        try {
+            return findField(obj.getClass(), fieldName).get(obj);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
+    }
+
+    private static Field findFieldRecursive(Class<?> clazz, String fieldName) throws NoSuchFieldException {
+        try {
+            return clazz.getDeclaredField(fieldName);
+        } catch (NoSuchFieldException e) {
+            while (true) {
+                clazz = clazz.getSuperclass();
+                if (clazz == null || clazz.equals(Object.class)) {
+                    break;
+                }
+                try {
+                    return clazz.getDeclaredField(fieldName);
+                } catch (NoSuchFieldException ignored) {
+                }
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package android.content.pm;
+
+/**
+ * リプレイ用の android.content.pm.ActivityInfo の代役
+ * フックが触るフィールドだけを同じ名前・型で持つ
+ */
+public class ActivityInfo {
+
+    public static final int RESIZE_MODE_UNRESIZEABLE = 0;
+    public static final int RESIZE_MODE_RESIZEABLE_VIA_SDK_VERSION = 1;
+    public static final int RESIZE_MODE_RESIZEABLE = 2;
+
+    public String packageName;
+    public String name;
+    public ApplicationInfo applicationInfo;
+    public int flags;
+    public int screenOrientation;
+    public int resizeMode = RESIZE_MODE_RESIZEABLE;
+
+    /**
+     * フックされる前の判定（リプレイでは本来の戻り値としてフックに渡す）
+     */
+    public boolean isResizeable() {
+        return resizeMode != RESIZE_MODE_UNRESIZEABLE;
+    }
+}
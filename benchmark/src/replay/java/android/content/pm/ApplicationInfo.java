@@ -0,0 +1,11 @@
+package android.content.pm;
+
+/**
+ * リプレイ用の android.content.pm.ApplicationInfo の代役
+ */
+public class ApplicationInfo {
+    public String packageName;
+    public String sourceDir;
+    public int flags;
+    public int targetSdkVersion;
+}
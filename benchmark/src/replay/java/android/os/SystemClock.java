@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * リプレイ用の android.os.SystemClock の代役
+ */
+public final class SystemClock {
+
+    private SystemClock() {}
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
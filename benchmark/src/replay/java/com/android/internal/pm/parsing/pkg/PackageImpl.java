@@ -0,0 +1,27 @@
+package com.android.internal.pm.parsing.pkg;
+
+import com.android.internal.pm.pkg.component.ParsedActivityImpl;
+
+import java.util.List;
+
+/**
+ * リプレイ用の PackageImpl の代役（ParsedPackagePatcher が使うメソッドだけ）
+ */
+public class PackageImpl {
+
+    private final String packageName;
+    private final List<ParsedActivityImpl> activities;
+
+    public PackageImpl(String packageName, List<ParsedActivityImpl> activities) {
+        this.packageName = packageName;
+        this.activities = activities;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public List<ParsedActivityImpl> getActivities() {
+        return activities;
+    }
+}
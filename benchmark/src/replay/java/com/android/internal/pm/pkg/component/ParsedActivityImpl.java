@@ -0,0 +1,28 @@
+package com.android.internal.pm.pkg.component;
+
+/**
+ * リプレイ用の ParsedActivityImpl の代役（ParsedPackagePatcher が使うメソッドだけ）
+ */
+public class ParsedActivityImpl {
+
+    private final String name;
+    private int resizeMode;
+
+    public ParsedActivityImpl(String name, int resizeMode) {
+        this.name = name;
+        this.resizeMode = resizeMode;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getResizeMode() {
+        return resizeMode;
+    }
+
+    public ParsedActivityImpl setResizeMode(int resizeMode) {
+        this.resizeMode = resizeMode;
+        return this;
+    }
+}
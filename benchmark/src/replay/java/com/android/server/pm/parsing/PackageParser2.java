@@ -0,0 +1,16 @@
+package com.android.server.pm.parsing;
+
+import com.android.internal.pm.parsing.pkg.PackageImpl;
+
+import java.io.File;
+
+/**
+ * リプレイ用の PackageParser2 の代役（フックの登録先のメソッドとしてだけ使う）
+ * 解析結果はリプレイがトレースから組み立てる
+ */
+public class PackageParser2 {
+
+    public PackageImpl parsePackage(File packageFile, int flags, boolean useCaches) {
+        throw new UnsupportedOperationException("replay only");
+    }
+}
@@ -0,0 +1,19 @@
+package com.android.server.wm;
+
+import android.content.pm.ActivityInfo;
+
+/**
+ * リプレイ用の ActivityRecord の代役
+ * 実際のコンストラクタと同じく、先頭が ActivityTaskManagerService で途中に ActivityInfo を受け取る
+ */
+public class ActivityRecord {
+
+    public final ActivityInfo info;
+    public final String packageName;
+
+    public ActivityRecord(ActivityTaskManagerService atmService, int launchedFromPid, int launchedFromUid,
+            String launchedFromPackage, ActivityInfo info) {
+        this.info = info;
+        this.packageName = info.packageName;
+    }
+}
@@ -0,0 +1,7 @@
+package com.android.server.wm;
+
+/**
+ * リプレイ用の ActivityTaskManagerService の代役（コンストラクタの引数の型としてだけ使う）
+ */
+public class ActivityTaskManagerService {
+}
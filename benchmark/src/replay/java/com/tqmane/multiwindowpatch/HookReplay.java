@@ -0,0 +1,359 @@
+package com.tqmane.multiwindowpatch;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+
+import com.android.internal.pm.parsing.pkg.PackageImpl;
+import com.android.internal.pm.pkg.component.ParsedActivityImpl;
+import com.android.server.pm.parsing.PackageParser2;
+import com.android.server.wm.ActivityRecord;
+import com.android.server.wm.ActivityTaskManagerService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XC_MethodHook.MethodHookParam;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * system_server のフックのコールバックを JVM 上で再生して計測する
+ *
+ * フレームワークと Xposed のクラスは代役（replay ソースセット）に差し替え、
+ * コールバック自体はアプリのソース（ResizeHooks など）をそのまま使う。
+ * トレースの呼び出しをフックごとにまとめて再生し、1回あたりの時間と割り当てを
+ * 保存済みのベースラインと比べる。悪化したフックがあれば終了コード 1 で終わる。
+ *
+ * 実行: ./gradlew :benchmark:replay
+ *       ./gradlew :benchmark:replay -PreplayArgs="--update-baseline"
+ *       ./gradlew :benchmark:replay -PreplayArgs="--trace device-boot.trace"
+ */
+public final class HookReplay {
+
+    private static final String DEFAULT_BASELINE = "replay-baseline.properties";
+
+    // JIT が落ち着くまでの呼び出し回数と、計測に使う最小の呼び出し回数（呼び出しの少ないフック用）
+    private static final int WARMUP_CALLS = 500_000;
+    private static final int MIN_MEASURED_CALLS = 100_000;
+    private static final int DEFAULT_ITERATIONS = 50;
+
+    // ベースラインからの許容幅（時間は比率、割り当ては1回あたりのバイト数）
+    private static final double TIME_TOLERANCE = 1.3;
+    private static final double ALLOCATION_TOLERANCE_BYTES = 1.0;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Member isResizeable;
+    private final Member activityRecordInit;
+    private final Member parsePackage;
+
+    private HookReplay() throws ReflectiveOperationException {
+        isResizeable = ActivityInfo.class.getMethod("isResizeable");
+        parsePackage = PackageParser2.class.getMethod("parsePackage", File.class, int.class, boolean.class);
+        Constructor<?> constructor = ActivityRecord.class.getConstructors()[0];
+        activityRecordInit = constructor;
+        int activityInfoIndex = HookSignatureResolver.indexOfType(
+            constructor.getParameterTypes(), "android.content.pm.ActivityInfo");
+
+        // MainHook と同じコールバックを登録する（計測結果は使わないので専用の HookStats に記録）
+        HookFieldAccessors fieldAccessors = HookFieldAccessors.resolve(ActivityInfo.class);
+        XposedBridge.hookMethod(isResizeable,
+            new ResizeHooks.IsResizeable(new HookStats("ActivityInfo.isResizeable")));
+        XposedBridge.hookMethod(parsePackage,
+            new ResizeHooks.ParsePackage(new HookStats("PackageParser2.parsePackage")));
+        XposedBridge.hookMethod(activityRecordInit, new ResizeHooks.ActivityRecordInit(
+            activityInfoIndex, fieldAccessors, new HookStats("ActivityRecord.<init>")));
+    }
+
+    /**
+     * 1つのフックに届いた呼び出しの列（引数は事前に組み立てておき、再生のたびに状態を戻す）
+     */
+    private abstract static class Batch {
+        final String hook;
+        final MethodHookParam[] calls;
+        final List<XC_MethodHook> callbacks;
+
+        Batch(String hook, Member member, MethodHookParam[] calls) {
+            this.hook = hook;
+            this.calls = calls;
+            this.callbacks = XposedBridge.hooksOf(member);
+        }
+
+        /** 再生前に、前回の再生でコールバックが書き換えた状態を戻す（計測しない） */
+        abstract void reset();
+
+        void play() throws Throwable {
+            for (MethodHookParam param : calls) {
+                for (int i = 0; i < callbacks.size(); i++) {
+                    XposedBridge.callAfterHookedMethod(callbacks.get(i), param);
+                }
+            }
+        }
+    }
+
+    /**
+     * 計測結果（1回あたり）
+     */
+    private static final class Result {
+        final String key;
+        final int calls;
+        final double nanosPerCall;
+        final double bytesPerCall;
+
+        Result(String key, int calls, double nanosPerCall, double bytesPerCall) {
+            this.key = key;
+            this.calls = calls;
+            this.nanosPerCall = nanosPerCall;
+            this.bytesPerCall = bytesPerCall;
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Path baselineFile = Paths.get(DEFAULT_BASELINE);
+        boolean updateBaseline = false;
+        int iterations = DEFAULT_ITERATIONS;
+        List<ReplayTrace> traces = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline":
+                    baselineFile = Paths.get(args[++i]);
+                    break;
+                case "--update-baseline":
+                    updateBaseline = true;
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--trace":
+                    traces.add(ReplayTrace.read(Paths.get(args[++i])));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        if (traces.isEmpty()) {
+            traces.add(ReplayTrace.boot());
+            traces.add(ReplayTrace.launch());
+        }
+
+        HookReplay replay = new HookReplay();
+        List<Result> results = new ArrayList<>();
+        for (ReplayTrace trace : traces) {
+            ResizePolicies.publish(ResizePolicyTable.build(trace.packagePolicies, trace.componentPolicies));
+            for (Batch batch : replay.batchesOf(trace)) {
+                results.add(measure(trace.name + "." + batch.hook, batch, iterations));
+            }
+        }
+
+        Properties baseline = loadBaseline(baselineFile);
+        boolean regressed = report(results, baseline);
+        if (updateBaseline) {
+            saveBaseline(baselineFile, results);
+            System.out.println("Baseline written to " + baselineFile);
+        } else if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * トレースをフックごとの呼び出しの列に変換する
+     */
+    private List<Batch> batchesOf(ReplayTrace trace) {
+        List<Batch> batches = new ArrayList<>();
+        Map<String, ActivityInfo> infos = new HashMap<>();
+
+        if (!trace.parsedPackages.isEmpty()) {
+            List<ParsedActivityImpl> activities = new ArrayList<>();
+            List<Integer> originalModes = new ArrayList<>();
+            MethodHookParam[] calls = new MethodHookParam[trace.parsedPackages.size()];
+            for (int i = 0; i < calls.length; i++) {
+                ReplayTrace.ParsedPackage parsed = trace.parsedPackages.get(i);
+                List<ParsedActivityImpl> packageActivities = new ArrayList<>();
+                for (int a = 0; a < parsed.classNames.length; a++) {
+                    ParsedActivityImpl activity = new ParsedActivityImpl(parsed.classNames[a], parsed.resizeModes[a]);
+                    packageActivities.add(activity);
+                    activities.add(activity);
+                    originalModes.add(parsed.resizeModes[a]);
+                }
+                calls[i] = new MethodHookParam(parsePackage, new PackageParser2(),
+                    new Object[] {new File("/data/app/" + parsed.packageName), 0, true});
+                calls[i].setResult(new PackageImpl(parsed.packageName, packageActivities));
+            }
+            batches.add(new Batch("PackageParser2.parsePackage", parsePackage, calls) {
+                @Override
+                void reset() {
+                    // 毎回、解析された直後の値から書き換える
+                    for (int i = 0; i < activities.size(); i++) {
+                        activities.get(i).setResizeMode(originalModes.get(i));
+                    }
+                }
+            });
+        }
+
+        if (!trace.activityRecords.isEmpty()) {
+            MethodHookParam[] calls = new MethodHookParam[trace.activityRecords.size()];
+            ActivityInfo[] recordInfos = new ActivityInfo[calls.length];
+            ActivityTaskManagerService atms = new ActivityTaskManagerService();
+            for (int i = 0; i < calls.length; i++) {
+                // ActivityRecord はそれぞれ PackageManager から受け取った ActivityInfo のコピーを持つ
+                recordInfos[i] = activityInfo(trace, trace.activityRecords.get(i));
+                Object[] args = {atms, 0, 10000 + i, "com.android.launcher3", recordInfos[i]};
+                calls[i] = new MethodHookParam(activityRecordInit,
+                    new ActivityRecord(atms, 0, 10000 + i, "com.android.launcher3", recordInfos[i]), args);
+            }
+            batches.add(new Batch("ActivityRecord.<init>", activityRecordInit, calls) {
+                @Override
+                void reset() {
+                    for (ActivityInfo info : recordInfos) {
+                        info.resizeMode = initialResizeMode(trace, info);
+                    }
+                }
+            });
+        }
+
+        if (!trace.isResizeableCalls.isEmpty()) {
+            MethodHookParam[] calls = new MethodHookParam[trace.isResizeableCalls.size()];
+            Boolean[] originals = new Boolean[calls.length];
+            for (int i = 0; i < calls.length; i++) {
+                // 同じアクティビティへの問い合わせは同じ ActivityInfo（ActivityRecord が持つもの）に対して行われる
+                ActivityInfo info = infos.computeIfAbsent(trace.isResizeableCalls.get(i),
+                    component -> activityInfo(trace, component));
+                originals[i] = info.isResizeable();
+                calls[i] = new MethodHookParam(isResizeable, info, new Object[0]);
+            }
+            batches.add(new Batch("ActivityInfo.isResizeable", isResizeable, calls) {
+                @Override
+                void reset() {
+                    for (int i = 0; i < calls.length; i++) {
+                        calls[i].setResult(originals[i]);
+                    }
+                }
+            });
+        }
+        return batches;
+    }
+
+    private static ActivityInfo activityInfo(ReplayTrace trace, String component) {
+        int slash = component.indexOf('/');
+        ActivityInfo info = new ActivityInfo();
+        info.packageName = component.substring(0, slash);
+        info.name = component.substring(slash + 1);
+        info.applicationInfo = new ApplicationInfo();
+        info.applicationInfo.packageName = info.packageName;
+        info.applicationInfo.sourceDir = "/data/app/" + info.packageName + "/base.apk";
+        info.resizeMode = initialResizeMode(trace, info);
+        return info;
+    }
+
+    private static int initialResizeMode(ReplayTrace trace, ActivityInfo info) {
+        Integer mode = trace.parsedResizeModes.get(info.packageName + "/" + info.name);
+        return mode != null ? mode : ActivityInfo.RESIZE_MODE_RESIZEABLE;
+    }
+
+    /**
+     * 再生を繰り返し、1回あたりの時間と割り当ての中央値を求める
+     */
+    private static Result measure(String key, Batch batch, int minIterations) throws Throwable {
+        int length = batch.calls.length;
+        for (int i = 0; i < WARMUP_CALLS / length + 1; i++) {
+            batch.reset();
+            batch.play();
+        }
+        int iterations = Math.max(minIterations, MIN_MEASURED_CALLS / length);
+        double[] nanos = new double[iterations];
+        double[] bytes = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            batch.reset();
+            long startBytes = THREADS.getCurrentThreadAllocatedBytes();
+            long startNanos = System.nanoTime();
+            batch.play();
+            long elapsed = System.nanoTime() - startNanos;
+            long allocated = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+            nanos[i] = (double) elapsed / length;
+            bytes[i] = (double) allocated / length;
+        }
+        return new Result(key, length, median(nanos), median(bytes));
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * 結果をベースラインと並べて出力する
+     *
+     * @return 悪化したフックがあれば true
+     */
+    private static boolean report(List<Result> results, Properties baseline) {
+        boolean regressed = false;
+        System.out.println(String.format(Locale.ROOT, "%-40s %8s %10s %10s %8s %8s  %s",
+            "trace.hook", "calls", "ns/call", "baseline", "B/call", "baseline", "status"));
+        for (Result result : results) {
+            String baseNanos = baseline.getProperty(result.key + ".ns");
+            String baseBytes = baseline.getProperty(result.key + ".bytes");
+            String status;
+            if (baseNanos == null || baseBytes == null) {
+                status = "new";
+            } else {
+                List<String> problems = new ArrayList<>();
+                if (result.nanosPerCall > Double.parseDouble(baseNanos) * TIME_TOLERANCE) {
+                    problems.add("slower");
+                }
+                if (result.bytesPerCall > Double.parseDouble(baseBytes) + ALLOCATION_TOLERANCE_BYTES) {
+                    problems.add("allocates more");
+                }
+                status = problems.isEmpty() ? "ok" : "REGRESSION: " + String.join(", ", problems);
+                regressed |= !problems.isEmpty();
+            }
+            System.out.println(String.format(Locale.ROOT, "%-40s %8d %10.1f %10s %8.1f %8s  %s",
+                result.key, result.calls, result.nanosPerCall, baseNanos != null ? baseNanos : "-",
+                result.bytesPerCall, baseBytes != null ? baseBytes : "-", status));
+        }
+        return regressed;
+    }
+
+    private static Properties loadBaseline(Path file) throws IOException {
+        Properties baseline = new Properties();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                baseline.load(in);
+            }
+        }
+        return baseline;
+    }
+
+    private static void saveBaseline(Path file, List<Result> results) throws IOException {
+        Map<String, String> sorted = new TreeMap<>();
+        for (Result result : results) {
+            sorted.put(result.key + ".ns", String.format(Locale.ROOT, "%.1f", result.nanosPerCall));
+            sorted.put(result.key + ".bytes", String.format(Locale.ROOT, "%.1f", result.bytesPerCall));
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# HookReplay のベースライン（--update-baseline で更新）\n");
+            out.write("# <トレース名>.<フック>.ns / .bytes: 1回あたりの時間（ナノ秒）と割り当て（バイト）\n");
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.tqmane.multiwindowpatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * system_server のフックに届いた呼び出しの記録（リプレイ用）
+ *
+ * テキスト形式で、1行に1件（# 以降はコメント）:
+ *   policy <パッケージ名>[/<クラス名>] <ResizePolicyTable.POLICY_* の値>
+ *   parsePackage <パッケージ名> <クラス名>:<解析時の resizeMode> ...
+ *   isResizeable <パッケージ名>/<クラス名>
+ *   activityRecord <パッケージ名>/<クラス名>
+ *
+ * ファイルがない場合に使う組み込みのトレース（boot / launch）は、
+ * 同じ形の呼び出しを乱数で組み立てたもの（シード固定なので毎回同じになる）。
+ */
+final class ReplayTrace {
+
+    /** parsePackage の1回分 */
+    static final class ParsedPackage {
+        final String packageName;
+        final String[] classNames;
+        final int[] resizeModes;
+
+        ParsedPackage(String packageName, String[] classNames, int[] resizeModes) {
+            this.packageName = packageName;
+            this.classNames = classNames;
+            this.resizeModes = resizeModes;
+        }
+    }
+
+    final String name;
+    final Map<String, Byte> packagePolicies = new HashMap<>();
+    final Map<String, Byte> componentPolicies = new HashMap<>();
+    final List<ParsedPackage> parsedPackages = new ArrayList<>();
+    /** isResizeable が呼ばれたアクティビティ（"パッケージ名/クラス名"、呼ばれた順） */
+    final List<String> isResizeableCalls = new ArrayList<>();
+    /** ActivityRecord が作られたアクティビティ（"パッケージ名/クラス名"、作られた順） */
+    final List<String> activityRecords = new ArrayList<>();
+    /** 解析時の resizeMode（"パッケージ名/クラス名" → 値。記録にないものは RESIZEABLE とみなす） */
+    final Map<String, Integer> parsedResizeModes = new HashMap<>();
+
+    private ReplayTrace(String name) {
+        this.name = name;
+    }
+
+    static ReplayTrace read(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        ReplayTrace trace = new ReplayTrace(dot > 0 ? fileName.substring(0, dot) : fileName);
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+                if (fields[0].isEmpty()) {
+                    continue;
+                }
+                try {
+                    trace.parseLine(fields);
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return trace;
+    }
+
+    private void parseLine(String[] fields) {
+        switch (fields[0]) {
+            case "policy": {
+                byte policy = Byte.parseByte(fields[2]);
+                if (fields[1].indexOf('/') >= 0) {
+                    componentPolicies.put(fields[1], policy);
+                } else {
+                    packagePolicies.put(fields[1], policy);
+                }
+                break;
+            }
+            case "parsePackage": {
+                String packageName = fields[1];
+                String[] classNames = new String[fields.length - 2];
+                int[] resizeModes = new int[fields.length - 2];
+                for (int i = 2; i < fields.length; i++) {
+                    int colon = fields[i].lastIndexOf(':');
+                    classNames[i - 2] = fields[i].substring(0, colon);
+                    resizeModes[i - 2] = Integer.parseInt(fields[i].substring(colon + 1));
+                }
+                addParsedPackage(packageName, classNames, resizeModes);
+                break;
+            }
+            case "isResizeable":
+                isResizeableCalls.add(component(fields[1]));
+                break;
+            case "activityRecord":
+                activityRecords.add(component(fields[1]));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown event: " + fields[0]);
+        }
+    }
+
+    private void addParsedPackage(String packageName, String[] classNames, int[] resizeModes) {
+        parsedPackages.add(new ParsedPackage(packageName, classNames, resizeModes));
+        for (int i = 0; i < classNames.length; i++) {
+            parsedResizeModes.put(packageName + "/" + classNames[i], resizeModes[i]);
+        }
+    }
+
+    private static String component(String value) {
+        if (value.indexOf('/') <= 0) {
+            throw new IllegalArgumentException("expected <package>/<class>: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * 組み込みのトレース: 起動時のパッケージのスキャンと、ホームが表示されるまでの呼び出し
+     */
+    static ReplayTrace boot() {
+        Device device = new Device();
+        ReplayTrace trace = new ReplayTrace("boot");
+        device.addPolicies(trace);
+        for (int p = 0; p < device.packageNames.length; p++) {
+            trace.addParsedPackage(device.packageNames[p], device.classNames[p], device.resizeModes[p]);
+        }
+        // システム UI・ホームなど少数のアクティビティに呼び出しが集中する
+        String[] hot = device.pickComponents(40);
+        for (int i = 0; i < 20_000; i++) {
+            trace.isResizeableCalls.add(hot[device.skewed(hot.length)]);
+        }
+        for (int i = 0; i < 12; i++) {
+            trace.activityRecords.add(hot[device.skewed(hot.length)]);
+        }
+        return trace;
+    }
+
+    /**
+     * 組み込みのトレース: 起動済みの端末で1つのアプリを起動したときの呼び出し
+     */
+    static ReplayTrace launch() {
+        Device device = new Device();
+        ReplayTrace trace = new ReplayTrace("launch");
+        device.addPolicies(trace);
+        for (int p = 0; p < device.packageNames.length; p++) {
+            for (int a = 0; a < device.classNames[p].length; a++) {
+                trace.parsedResizeModes.put(device.packageNames[p] + "/" + device.classNames[p][a],
+                    device.resizeModes[p][a]);
+            }
+        }
+        String[] involved = device.pickComponents(8);
+        for (int i = 0; i < 3; i++) {
+            trace.activityRecords.add(involved[i]);
+        }
+        for (int i = 0; i < 600; i++) {
+            trace.isResizeableCalls.add(involved[device.skewed(involved.length)]);
+        }
+        return trace;
+    }
+
+    /**
+     * 組み込みのトレースに共通する架空の端末（インストール済みのパッケージとポリシー）
+     */
+    private static final class Device {
+        private static final int PACKAGES = 350;
+
+        final Random random = new Random(42);
+        final String[] packageNames = new String[PACKAGES];
+        final String[][] classNames = new String[PACKAGES][];
+        final int[][] resizeModes = new int[PACKAGES][];
+
+        Device() {
+            for (int p = 0; p < PACKAGES; p++) {
+                packageNames[p] = (p % 3 == 0 ? "com.android.app" : "com.example.app") + p;
+                // 大半は数個、一部の大きなアプリは数十個のアクティビティを持つ
+                int activities = random.nextInt(10) == 0 ? 10 + random.nextInt(50) : 1 + random.nextInt(4);
+                classNames[p] = new String[activities];
+                resizeModes[p] = new int[activities];
+                for (int a = 0; a < activities; a++) {
+                    classNames[p][a] = packageNames[p] + ".ui.Activity" + a;
+                    int roll = random.nextInt(10);
+                    resizeModes[p][a] = roll < 3 ? 0 : roll < 4 ? 1 : 2;
+                }
+            }
+        }
+
+        void addPolicies(ReplayTrace trace) {
+            for (int i = 0; i < 15; i++) {
+                int p = random.nextInt(PACKAGES);
+                trace.packagePolicies.put(packageNames[p], (byte) (1 + random.nextInt(2)));
+            }
+            for (int i = 0; i < 5; i++) {
+                int p = random.nextInt(PACKAGES);
+                trace.componentPolicies.put(packageNames[p] + "/" + classNames[p][0], (byte) random.nextInt(3));
+            }
+        }
+
+        String[] pickComponents(int count) {
+            String[] picked = new String[count];
+            for (int i = 0; i < count; i++) {
+                int p = random.nextInt(PACKAGES);
+                picked[i] = packageNames[p] + "/" + classNames[p][random.nextInt(classNames[p].length)];
+            }
+            return picked;
+        }
+
+        /** 先頭ほど選ばれやすい添字 */
+        int skewed(int bound) {
+            double x = random.nextDouble();
+            return (int) (bound * x * x * x);
+        }
+    }
+}
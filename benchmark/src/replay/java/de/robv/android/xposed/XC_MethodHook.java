@@ -0,0 +1,53 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Member;
+
+/**
+ * リプレイ用の XC_MethodHook の代役
+ * モジュールのコールバックが使うメンバーだけを同じ名前で持つ
+ */
+public abstract class XC_MethodHook {
+
+    protected void beforeHookedMethod(MethodHookParam param) throws Throwable {}
+
+    protected void afterHookedMethod(MethodHookParam param) throws Throwable {}
+
+    /**
+     * フックされたメソッドの呼び出し1回分（リプレイでは使い回す）
+     */
+    public static final class MethodHookParam {
+        public Member method;
+        public Object thisObject;
+        public Object[] args;
+        private Object result;
+        private Throwable throwable;
+
+        public MethodHookParam(Member method, Object thisObject, Object[] args) {
+            this.method = method;
+            this.thisObject = thisObject;
+            this.args = args;
+        }
+
+        public Object getResult() {
+            return result;
+        }
+
+        public void setResult(Object result) {
+            this.result = result;
+            this.throwable = null;
+        }
+
+        public Throwable getThrowable() {
+            return throwable;
+        }
+
+        public boolean hasThrowable() {
+            return throwable != null;
+        }
+
+        public void setThrowable(Throwable throwable) {
+            this.throwable = throwable;
+            this.result = null;
+        }
+    }
+}
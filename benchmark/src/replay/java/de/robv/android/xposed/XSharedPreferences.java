@@ -0,0 +1,27 @@
+package de.robv.android.xposed;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * リプレイ用の XSharedPreferences の代役（常に空）
+ * ポリシーはリプレイが ResizePolicies.publish で直接公開する
+ */
+public final class XSharedPreferences {
+
+    public XSharedPreferences(String packageName, String prefFileName) {}
+
+    public boolean hasFileChanged() {
+        return false;
+    }
+
+    public void reload() {}
+
+    public Map<String, ?> getAll() {
+        return Collections.emptyMap();
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        return defValue;
+    }
+}
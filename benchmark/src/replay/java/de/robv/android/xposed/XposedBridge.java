@@ -0,0 +1,49 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * リプレイ用の XposedBridge の代役
+ *
+ * メソッドを書き換える代わりに、登録されたコールバックをメンバーごとに覚えておき、
+ * リプレイが記録された呼び出しをそのコールバックへ渡す。
+ */
+public final class XposedBridge {
+
+    private static final Map<Member, List<XC_MethodHook>> HOOKS = new HashMap<>();
+
+    private XposedBridge() {}
+
+    public static synchronized void hookMethod(Member method, XC_MethodHook callback) {
+        HOOKS.computeIfAbsent(method, m -> new ArrayList<>()).add(callback);
+    }
+
+    public static void log(String text) {
+        System.err.println(text);
+    }
+
+    public static void log(Throwable t) {
+        t.printStackTrace();
+    }
+
+    /**
+     * 代役だけのメソッド: メンバーに登録されたコールバック
+     */
+    public static synchronized List<XC_MethodHook> hooksOf(Member method) {
+        List<XC_MethodHook> hooks = HOOKS.get(method);
+        return hooks != null ? new ArrayList<>(hooks) : Collections.emptyList();
+    }
+
+    /**
+     * 代役だけのメソッド: 本来のメソッドの実行後のコールバックを呼ぶ
+     */
+    public static void callAfterHookedMethod(XC_MethodHook hook, XC_MethodHook.MethodHookParam param)
+            throws Throwable {
+        hook.afterHookedMethod(param);
+    }
+}
@@ -0,0 +1,51 @@
+package com.tqmane.multiwindowpatch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * アプリ一覧の直列化形式
+ * 件数に続けて、1件ごとにパッケージ名・アプリ名・versionCode・更新日時・システムアプリかどうか・
+ * プロファイルのシリアル番号・自分以外のプロファイルかどうか
+ */
+public final class AppCatalogCodec {
+
+    private AppCatalogCodec() {}
+
+    public static void writeApps(DataOutput out, Collection<AppInfo> apps) throws IOException {
+        out.writeInt(apps.size());
+        for (AppInfo app : apps) {
+            out.writeUTF(app.packageName);
+            out.writeUTF(app.appName);
+            out.writeLong(app.versionCode);
+            out.writeLong(app.lastUpdateTime);
+            out.writeBoolean(app.isSystemApp);
+            out.writeLong(app.userSerial);
+            out.writeBoolean(app.isWorkProfile);
+        }
+    }
+
+    public static List<AppInfo> readApps(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative app count: " + count);
+        }
+        List<AppInfo> apps = new ArrayList<>(Math.min(count, 4096));
+        for (int i = 0; i < count; i++) {
+            String packageName = in.readUTF();
+            String appName = in.readUTF();
+            long versionCode = in.readLong();
+            long lastUpdateTime = in.readLong();
+            boolean isSystemApp = in.readBoolean();
+            long userSerial = in.readLong();
+            boolean isWorkProfile = in.readBoolean();
+            apps.add(new AppInfo(packageName, appName, versionCode, lastUpdateTime, isSystemApp,
+                userSerial, isWorkProfile));
+        }
+        return apps;
+    }
+}
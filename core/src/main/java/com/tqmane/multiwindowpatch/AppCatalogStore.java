@@ -0,0 +1,286 @@
+package com.tqmane.multiwindowpatch;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * アプリ一覧の詰め込み表現（不変）
+ *
+ * アプリごとにオブジェクトを作らず、項目ごとの並列配列で保持する。
+ * 行はアプリ名順に並び、検索用の正規化キーと見出しも一緒に持つ。
+ * 同じ文字列（複数プロファイルの同じアプリ名、見出しなど）は1つのインスタンスを共有する。
+ * 共有に使う表は withChanges で作ったストアへ引き継ぐので、別々のバッチで届いた行の間でも共有される。
+ * 削除・更新された行の文字列も表に残るため、表が行の使う分の2倍を超えたら残る行の文字列だけで作り直す
+ * （空のストアから作り始めるときも新しくする）。
+ * 行はパッケージ名とプロファイルの組（AppInfo.key）で識別する。
+ *
+ * 変更は withChanges で新しいストアを作る。変更のない行は正規化済みのキーごと引き継ぎ、
+ * 新しい行だけを並び替えて既存の行とマージする。
+ */
+public final class AppCatalogStore {
+
+    /** flags のビット: システムアプリ */
+    public static final int FLAG_SYSTEM = 1;
+    /** flags のビット: 自分以外のプロファイル（仕事用プロファイルなど）のアプリ */
+    public static final int FLAG_WORK_PROFILE = 1 << 1;
+
+    public static final AppCatalogStore EMPTY = new AppCatalogStore(0, Collections.emptyMap());
+
+    // 1行が共有の表に入れる文字列の数（パッケージ名・アプリ名・2つの検索キー・見出し）
+    private static final int POOLED_PER_ROW = 5;
+    // 行が少ないときに表を作り直しすぎないための余裕
+    private static final int POOL_SLACK = 64;
+
+    private final int size;
+    private final String[] packageNames;
+    private final String[] appNames;
+    private final long[] versionCodes;
+    private final long[] lastUpdateTimes;
+    private final long[] userSerials;
+    private final int[] flags;
+    private final CollationKey[] collationKeys;
+    private final String[] sectionLabels;
+    private final String[] nameKeys;
+    private final String[] packageKeys;
+    // 同じ文字列を1つのインスタンスにまとめる表（このストアから作るストアと共有する）
+    private final Map<String, String> pool;
+
+    private AppCatalogStore(int size, Map<String, String> pool) {
+        this.size = size;
+        this.pool = pool;
+        packageNames = new String[size];
+        appNames = new String[size];
+        versionCodes = new long[size];
+        lastUpdateTimes = new long[size];
+        userSerials = new long[size];
+        flags = new int[size];
+        collationKeys = new CollationKey[size];
+        sectionLabels = new String[size];
+        nameKeys = new String[size];
+        packageKeys = new String[size];
+    }
+
+    /**
+     * 一覧からストアを作る（AppCollation のキーが設定されていればその順序で並ぶ）
+     */
+    public static AppCatalogStore of(Collection<AppInfo> apps) {
+        return EMPTY.withChanges(apps, Collections.emptySet());
+    }
+
+    /**
+     * 追加・更新されたアプリと削除されたアプリ（AppInfo.key）を反映した新しいストアを返す
+     */
+    public AppCatalogStore withChanges(Collection<AppInfo> upserts, Collection<String> removedKeys) {
+        // 新しい行は同じキーの重複を除いて並び替える（後のものを優先）
+        Map<String, AppInfo> latest = new HashMap<>();
+        for (AppInfo app : upserts) {
+            latest.put(app.key(), app);
+        }
+        List<AppInfo> added = new ArrayList<>(latest.values());
+        added.sort(AppOrdering.BY_NAME);
+
+        Replaced replaced = new Replaced(latest.keySet(), removedKeys);
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!replaced.contains(this, i)) {
+                kept++;
+            }
+        }
+
+        // 空のストアから作る場合は、他の一覧と表を共有しないよう新しくする。
+        // 削除された行の文字列がたまって表が大きくなりすぎた場合も、残る行の分だけで作り直す
+        int mergedSize = kept + added.size();
+        boolean newPool = size == 0
+            || pool.size() + POOLED_PER_ROW * added.size() > 2 * POOLED_PER_ROW * mergedSize + POOL_SLACK;
+        AppCatalogStore merged = new AppCatalogStore(mergedSize,
+            newPool ? new ConcurrentHashMap<>() : pool);
+        int row = 0;
+        int oldRow = nextKept(0, replaced);
+        int addedIndex = 0;
+        while (oldRow < size || addedIndex < added.size()) {
+            if (addedIndex >= added.size()
+                    || (oldRow < size && compareRow(oldRow, added.get(addedIndex)) <= 0)) {
+                merged.copyRow(row++, this, oldRow, newPool);
+                oldRow = nextKept(oldRow + 1, replaced);
+            } else {
+                merged.setRow(row++, added.get(addedIndex++));
+            }
+        }
+        return merged;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String packageName(int row) {
+        return packageNames[row];
+    }
+
+    public String appName(int row) {
+        return appNames[row];
+    }
+
+    public long versionCode(int row) {
+        return versionCodes[row];
+    }
+
+    public long lastUpdateTime(int row) {
+        return lastUpdateTimes[row];
+    }
+
+    public long userSerial(int row) {
+        return userSerials[row];
+    }
+
+    public int flags(int row) {
+        return flags[row];
+    }
+
+    public boolean isSystemApp(int row) {
+        return (flags[row] & FLAG_SYSTEM) != 0;
+    }
+
+    public boolean isWorkProfile(int row) {
+        return (flags[row] & FLAG_WORK_PROFILE) != 0;
+    }
+
+    public String sectionLabel(int row) {
+        return sectionLabels[row];
+    }
+
+    /** 検索用に正規化したアプリ名 */
+    public String nameKey(int row) {
+        return nameKeys[row];
+    }
+
+    /** 検索用に正規化したパッケージ名 */
+    public String packageKey(int row) {
+        return packageKeys[row];
+    }
+
+    /**
+     * 2つのストアの行が同じアプリ（同じプロファイルの同じパッケージ）かどうか（差分計算用）
+     */
+    public static boolean sameItem(AppCatalogStore a, int rowA, AppCatalogStore b, int rowB) {
+        return a.userSerials[rowA] == b.userSerials[rowB]
+            && a.packageNames[rowA].equals(b.packageNames[rowB]);
+    }
+
+    /**
+     * 2つのストアの行が同じ内容かどうか（差分計算用）
+     */
+    public static boolean sameContents(AppCatalogStore a, int rowA, AppCatalogStore b, int rowB) {
+        return a.appNames[rowA].equals(b.appNames[rowB])
+            && a.versionCodes[rowA] == b.versionCodes[rowB]
+            && a.lastUpdateTimes[rowA] == b.lastUpdateTimes[rowB]
+            && a.flags[rowA] == b.flags[rowB];
+    }
+
+    /**
+     * 行を AppInfo として取り出す（クリック時など、必要になったときだけ使う）
+     */
+    public AppInfo toAppInfo(int row) {
+        AppInfo app = new AppInfo(packageNames[row], appNames[row], versionCodes[row],
+            lastUpdateTimes[row], isSystemApp(row), userSerials[row], isWorkProfile(row));
+        app.collationKey = collationKeys[row];
+        app.sectionLabel = sectionLabels[row];
+        return app;
+    }
+
+    private int nextKept(int from, Replaced replaced) {
+        int row = from;
+        while (row < size && replaced.contains(this, row)) {
+            row++;
+        }
+        return row;
+    }
+
+    /**
+     * AppOrdering.BY_NAME と同じ順序で、既存の行と新しいアプリを比較する
+     */
+    private int compareRow(int row, AppInfo app) {
+        if (collationKeys[row] != null && app.collationKey != null) {
+            int result = collationKeys[row].compareTo(app.collationKey);
+            if (result != 0) {
+                return result;
+            }
+        }
+        int result = appNames[row].compareToIgnoreCase(app.appName);
+        return result != 0 ? result : Long.compare(userSerials[row], app.userSerial);
+    }
+
+    /**
+     * @param repool 新しく作った表へ文字列を入れ直す場合は true
+     */
+    private void copyRow(int row, AppCatalogStore from, int fromRow, boolean repool) {
+        packageNames[row] = from.packageNames[fromRow];
+        appNames[row] = from.appNames[fromRow];
+        versionCodes[row] = from.versionCodes[fromRow];
+        lastUpdateTimes[row] = from.lastUpdateTimes[fromRow];
+        userSerials[row] = from.userSerials[fromRow];
+        flags[row] = from.flags[fromRow];
+        collationKeys[row] = from.collationKeys[fromRow];
+        sectionLabels[row] = from.sectionLabels[fromRow];
+        nameKeys[row] = from.nameKeys[fromRow];
+        packageKeys[row] = from.packageKeys[fromRow];
+        if (repool) {
+            packageNames[row] = intern(packageNames[row]);
+            appNames[row] = intern(appNames[row]);
+            sectionLabels[row] = intern(sectionLabels[row]);
+            nameKeys[row] = intern(nameKeys[row]);
+            packageKeys[row] = intern(packageKeys[row]);
+        }
+    }
+
+    private void setRow(int row, AppInfo app) {
+        packageNames[row] = intern(app.packageName);
+        appNames[row] = intern(app.appName);
+        versionCodes[row] = app.versionCode;
+        lastUpdateTimes[row] = app.lastUpdateTime;
+        userSerials[row] = app.userSerial;
+        flags[row] = (app.isSystemApp ? FLAG_SYSTEM : 0)
+            | (app.isWorkProfile ? FLAG_WORK_PROFILE : 0);
+        collationKeys[row] = app.collationKey;
+        // 正規化しても変わらない名前は元の文字列をそのまま使う
+        nameKeys[row] = intern(AppSearchIndex.normalize(app.appName));
+        packageKeys[row] = intern(AppSearchIndex.normalize(app.packageName));
+        sectionLabels[row] = intern(app.sectionLabel != null
+            ? app.sectionLabel : AppCollation.sectionLabelOfKey(nameKeys[row]));
+    }
+
+    /**
+     * 置き換える（または削除する）行の集合
+     * 大半の行はパッケージ名だけで対象外とわかるので、キーの文字列は候補の行でだけ作る
+     */
+    private static final class Replaced {
+        private final Set<String> keys = new HashSet<>();
+        private final Set<String> packageNames = new HashSet<>();
+
+        Replaced(Collection<String> upsertKeys, Collection<String> removedKeys) {
+            keys.addAll(upsertKeys);
+            keys.addAll(removedKeys);
+            for (String key : keys) {
+                packageNames.add(key.substring(key.indexOf('/') + 1));
+            }
+        }
+
+        boolean contains(AppCatalogStore store, int row) {
+            return packageNames.contains(store.packageNames[row])
+                && keys.contains(AppInfo.keyOf(store.userSerials[row], store.packageNames[row]));
+        }
+    }
+
+    private String intern(String value) {
+        String existing = pool.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+}
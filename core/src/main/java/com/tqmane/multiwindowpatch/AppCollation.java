@@ -0,0 +1,85 @@
+package com.tqmane.multiwindowpatch;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * アプリ名の照合キーと見出しを一覧の構築時に一度だけ計算する
+ *
+ * 比較のたびに文字列を変換する代わりに CollationKey（バイト列の比較）で並び替える。
+ * 見出しは同じ正規化を使って決め、早送りスクロールの索引に使う。
+ * Collator はスレッドセーフではないため、1つのスレッドから使う。
+ */
+public final class AppCollation {
+
+    /** 数字・記号など、文字の見出しにならないもの */
+    public static final String OTHER_SECTION = "#";
+    /** 漢字はまとめて1つの見出しにする */
+    public static final String KANJI_SECTION = "漢";
+
+    // カタカナの行の先頭（ァ〜ヶの各文字がどの行に属するか）
+    private static final char[] KANA_ROW_STARTS = {
+        'ァ', 'カ', 'サ', 'タ', 'ナ', 'ハ', 'マ', 'ャ', 'ラ', 'ヮ', 'ヴ', 'ヵ'
+    };
+    private static final String[] KANA_ROW_LABELS = {
+        "ア", "カ", "サ", "タ", "ナ", "ハ", "マ", "ヤ", "ラ", "ワ", "ア", "カ"
+    };
+
+    private final Collator collator;
+
+    public AppCollation(Locale locale) {
+        collator = Collator.getInstance(locale);
+        // 大文字小文字の違いは無視する（従来の compareToIgnoreCase と同じ扱い）
+        collator.setStrength(Collator.SECONDARY);
+    }
+
+    /**
+     * 照合キーと見出しを設定する
+     */
+    public void assign(Collection<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            // 全角英数・半角カナは幅を揃えてから照合する
+            app.collationKey = collator.getCollationKey(
+                Normalizer.normalize(app.appName, Normalizer.Form.NFKC));
+            app.sectionLabel = sectionLabelOf(app.appName);
+        }
+    }
+
+    /**
+     * アプリ名の見出し（英字はアクセントを外した大文字、かなは行の先頭、漢字と記号はまとめる）
+     */
+    public static String sectionLabelOf(String appName) {
+        return sectionLabelOfKey(AppSearchIndex.normalize(appName));
+    }
+
+    /**
+     * AppSearchIndex.normalize 済みの名前から見出しを求める
+     */
+    static String sectionLabelOfKey(String key) {
+        if (key.isEmpty()) {
+            return OTHER_SECTION;
+        }
+        char c = key.charAt(0);
+        if (c >= 'ァ' && c <= 'ヶ') {
+            int row = KANA_ROW_STARTS.length - 1;
+            while (c < KANA_ROW_STARTS[row]) {
+                row--;
+            }
+            return KANA_ROW_LABELS[row];
+        }
+        if (c >= '一' && c <= '鿿') {
+            return KANJI_SECTION;
+        }
+        if (c < 0x80) {
+            return Character.isLetter(c) ? String.valueOf(Character.toUpperCase(c)) : OTHER_SECTION;
+        }
+        if (Character.isLetter(c)) {
+            // アクセント記号は外す（"É" は "E" の見出しに入れる）
+            char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+            return String.valueOf(Character.toUpperCase(base));
+        }
+        return OTHER_SECTION;
+    }
+}
@@ -0,0 +1,51 @@
+package com.tqmane.multiwindowpatch;
+
+import java.text.CollationKey;
+
+/**
+ * アプリ情報を保持するデータクラス
+ * アイコンは保持せず、表示時に AppIconLoader から取得する
+ */
+public class AppInfo {
+    public String packageName;
+    public String appName;
+    public long versionCode;
+    public long lastUpdateTime;
+    public boolean isSystemApp;
+    /** 所属するプロファイル（UserManager.getSerialNumberForUser の値） */
+    public long userSerial;
+    /** 自分以外のプロファイル（仕事用プロファイルなど）のアプリ */
+    public boolean isWorkProfile;
+    
+    /** 並び替え用のキー（AppCollation が一覧の構築時に設定する。未設定なら null） */
+    public CollationKey collationKey;
+    /** 早送りスクロールの見出し（collationKey と同時に設定する） */
+    public String sectionLabel;
+    
+    public AppInfo(String packageName, String appName, long versionCode, long lastUpdateTime,
+                   boolean isSystemApp) {
+        this.packageName = packageName;
+        this.appName = appName;
+        this.versionCode = versionCode;
+        this.lastUpdateTime = lastUpdateTime;
+        this.isSystemApp = isSystemApp;
+    }
+    
+    public AppInfo(String packageName, String appName, long versionCode, long lastUpdateTime,
+                   boolean isSystemApp, long userSerial, boolean isWorkProfile) {
+        this(packageName, appName, versionCode, lastUpdateTime, isSystemApp);
+        this.userSerial = userSerial;
+        this.isWorkProfile = isWorkProfile;
+    }
+    
+    /**
+     * 一覧の中でアプリを識別するキー（同じパッケージでもプロファイルごとに別のエントリ）
+     */
+    public static String keyOf(long userSerial, String packageName) {
+        return userSerial + "/" + packageName;
+    }
+    
+    public String key() {
+        return keyOf(userSerial, packageName);
+    }
+}
@@ -0,0 +1,36 @@
+package com.tqmane.multiwindowpatch;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * アプリ一覧の並び順
+ */
+public final class AppOrdering {
+
+    /**
+     * アプリ名順
+     * 両方に AppCollation のキーがあればそれを比較し（言語に合った順序）、
+     * なければ大文字小文字を区別せずに比較する。
+     * 同じ名前のアプリはプロファイルのシリアル番号順（個人用のプロファイルが先）
+     */
+    public static final Comparator<AppInfo> BY_NAME = (a, b) -> {
+        if (a.collationKey != null && b.collationKey != null) {
+            int result = a.collationKey.compareTo(b.collationKey);
+            if (result != 0) {
+                return result;
+            }
+        }
+        int result = a.appName.compareToIgnoreCase(b.appName);
+        return result != 0 ? result : Long.compare(a.userSerial, b.userSerial);
+    };
+
+    private AppOrdering() {}
+
+    /**
+     * 一覧をアプリ名順に並び替える（その場で並び替える）
+     */
+    public static void sortByName(List<AppInfo> apps) {
+        apps.sort(BY_NAME);
+    }
+}
@@ -0,0 +1,112 @@
+package com.tqmane.multiwindowpatch;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * アプリ一覧の検索インデックス
+ * 正規化済みのアプリ名・パッケージ名は AppCatalogStore が保持しているので、キー入力ごとの変換は不要
+ *
+ * 結果はストアの行番号の配列で返す。
+ * 直前のクエリを延長した入力（"ch" → "chr" など）では、
+ * 直前の結果だけを対象に絞り込む。スレッドセーフではない。
+ */
+public final class AppSearchIndex {
+
+    private final AppCatalogStore store;
+    private final int[] allRows;
+
+    // 直前の検索結果（インクリメンタル絞り込み用）
+    private String lastQuery;
+    private int[] lastMatches;
+    private int lastMatchCount;
+
+    private AppSearchIndex(AppCatalogStore store) {
+        this.store = store;
+        this.allRows = new int[store.size()];
+        for (int i = 0; i < allRows.length; i++) {
+            allRows[i] = i;
+        }
+    }
+
+    public static AppSearchIndex build(AppCatalogStore store) {
+        return new AppSearchIndex(store);
+    }
+
+    public AppCatalogStore store() {
+        return store;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * クエリに一致する行番号をストアの並び順で返す
+     * 空のクエリでは全行を返す（共有の配列なので変更しないこと）
+     */
+    public int[] search(String query) {
+        String key = normalize(query);
+        if (key.isEmpty()) {
+            lastQuery = null;
+            lastMatches = null;
+            return allRows;
+        }
+
+        int[] matches;
+        int count = 0;
+        if (lastQuery != null && key.startsWith(lastQuery)) {
+            // 前回の結果の部分集合になるので、そこだけを調べる
+            matches = lastMatches;
+            for (int i = 0; i < lastMatchCount; i++) {
+                int row = lastMatches[i];
+                if (matches(row, key)) {
+                    matches[count++] = row;
+                }
+            }
+        } else {
+            matches = new int[store.size()];
+            for (int row = 0; row < store.size(); row++) {
+                if (matches(row, key)) {
+                    matches[count++] = row;
+                }
+            }
+        }
+
+        lastQuery = key;
+        lastMatches = matches;
+        lastMatchCount = count;
+
+        return Arrays.copyOf(matches, count);
+    }
+
+    private boolean matches(int row, String key) {
+        return store.nameKey(row).contains(key) || store.packageKey(row).contains(key);
+    }
+
+    /**
+     * 検索用の正規化
+     * - NFKC で全角英数・半角カナなどの幅を揃える
+     * - 大文字小文字を畳み込む
+     * - ひらがなをカタカナに揃える（"かめら" で "カメラ" に一致させる）
+     */
+    public static String normalize(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        char[] chars = null;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            // ぁ(U+3041)〜ゖ(U+3096) → ァ(U+30A1)〜ヶ(U+30F6)
+            if (c >= 'ぁ' && c <= 'ゖ') {
+                if (chars == null) {
+                    chars = folded.toCharArray();
+                }
+                chars[i] = (char) (c + 0x60);
+            }
+        }
+        return chars == null ? folded : new String(chars);
+    }
+}
@@ -0,0 +1,98 @@
+package com.tqmane.multiwindowpatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 並び替え済みの一覧の見出し索引（早送りスクロール用）
+ * AppCatalogStore が保持する見出し（AppCollation が計算したもの）をたどるだけで作る
+ */
+public final class AppSectionIndex {
+
+    public static final AppSectionIndex EMPTY = new AppSectionIndex(new String[0], new int[0], 0);
+
+    private final String[] sections;
+    private final int[] positions;
+    private final int itemCount;
+
+    private AppSectionIndex(String[] sections, int[] positions, int itemCount) {
+        this.sections = sections;
+        this.positions = positions;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * 表示する行（ストアの行番号の並び）から、見出しが変わる位置を集める
+     * 照合順序と見出しがずれて同じ見出しが再び現れた場合は、最初の位置だけを使う
+     */
+    public static AppSectionIndex build(AppCatalogStore store, int[] rows) {
+        return build(store, rows, 0, null);
+    }
+
+    /**
+     * 先頭の leadingCount 行（よく使うアプリなど、名前順ではない行）を1つの見出し leadingLabel にまとめて作る
+     */
+    public static AppSectionIndex build(AppCatalogStore store, int[] rows, int leadingCount, String leadingLabel) {
+        List<String> sections = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        if (leadingCount > 0) {
+            sections.add(leadingLabel);
+            positions.add(0);
+        }
+        String previous = null;
+        for (int i = leadingCount; i < rows.length; i++) {
+            String label = store.sectionLabel(rows[i]);
+            if (!label.equals(previous) && seen.add(label)) {
+                sections.add(label);
+                positions.add(i);
+            }
+            previous = label;
+        }
+        int[] positionArray = new int[positions.size()];
+        for (int i = 0; i < positionArray.length; i++) {
+            positionArray[i] = positions.get(i);
+        }
+        return new AppSectionIndex(sections.toArray(new String[0]), positionArray, rows.length);
+    }
+
+    public String[] getSections() {
+        return sections.clone();
+    }
+
+    public int size() {
+        return sections.length;
+    }
+
+    /**
+     * 見出しの先頭の位置
+     */
+    public int getPositionForSection(int section) {
+        if (sections.length == 0) {
+            return 0;
+        }
+        return positions[Math.max(0, Math.min(section, sections.length - 1))];
+    }
+
+    /**
+     * 位置が属する見出し
+     */
+    public int getSectionForPosition(int position) {
+        if (sections.length == 0 || position < 0 || position >= itemCount) {
+            return 0;
+        }
+        int low = 0;
+        int high = positions.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (positions[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,230 @@
+package com.tqmane.multiwindowpatch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * アプリの起動頻度（frecency: 回数と新しさを合わせたスコア）の表（不変）
+ *
+ * 起動1回ごとに 1 を加え、スコアは半減期 HALF_LIFE_MS で減衰させる。
+ * 減衰は最後に起動した時刻からの経過時間でまとめて計算するので、保持するのは
+ * アプリ（AppInfo.key）ごとに最後の起動時刻とその時点のスコアだけ。
+ * 件数は MAX_ENTRIES までで、あふれたらスコアの低いものから捨てる
+ * （いま起動したアプリは除く。スコア 1 から始まる新しいアプリが入れないため）。
+ */
+public final class LaunchFrecency {
+
+    public static final LaunchFrecency EMPTY = new LaunchFrecency(new String[0], new double[0], new long[0]);
+
+    /** スコアが半分になるまでの時間（1週間） */
+    public static final long HALF_LIFE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /** これより低いスコアのアプリは「よく使う」に含めない（約1か月前に1回起動した程度） */
+    public static final double MIN_SCORE = 0.05;
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final String[] keys;
+    private final double[] scores;
+    private final long[] lastLaunchTimes;
+    private final Map<String, Integer> indexByKey = new HashMap<>();
+    // 一覧の行を調べるとき、大半の行をキーの文字列を作らずに除外するためのパッケージ名
+    private final Set<String> packageNames = new HashSet<>();
+
+    private LaunchFrecency(String[] keys, double[] scores, long[] lastLaunchTimes) {
+        this.keys = keys;
+        this.scores = scores;
+        this.lastLaunchTimes = lastLaunchTimes;
+        for (int i = 0; i < keys.length; i++) {
+            indexByKey.put(keys[i], i);
+            packageNames.add(keys[i].substring(keys[i].indexOf('/') + 1));
+        }
+    }
+
+    /**
+     * 並び替えの結果
+     */
+    public static final class Ranked {
+        /** 表示する行番号の並び（よく使うアプリが先頭） */
+        public final int[] rows;
+        /** 先頭のよく使うアプリの行数 */
+        public final int frequentCount;
+
+        Ranked(int[] rows, int frequentCount) {
+            this.rows = rows;
+            this.frequentCount = frequentCount;
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * 起動を1回記録した新しい表を返す
+     */
+    public LaunchFrecency withLaunch(String key, long nowMillis) {
+        Integer index = indexByKey.get(key);
+        int size = index != null ? keys.length : keys.length + 1;
+        String[] newKeys = Arrays.copyOf(keys, size);
+        double[] newScores = Arrays.copyOf(scores, size);
+        long[] newTimes = Arrays.copyOf(lastLaunchTimes, size);
+        int target = index != null ? index : size - 1;
+        newKeys[target] = key;
+        newScores[target] = (index != null ? scoreAt(index, nowMillis) : 0) + 1;
+        newTimes[target] = nowMillis;
+        return trimmed(newKeys, newScores, newTimes, target, nowMillis);
+    }
+
+    /**
+     * 現時点のスコア（記録がなければ 0）
+     */
+    public double score(String key, long nowMillis) {
+        Integer index = indexByKey.get(key);
+        return index != null ? scoreAt(index, nowMillis) : 0;
+    }
+
+    /**
+     * スコアの高い順に最大 limit 件のキー（MIN_SCORE 未満は含めない）
+     */
+    public List<String> topKeys(int limit, long nowMillis) {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        double[] current = currentScores(nowMillis);
+        Arrays.sort(order, (a, b) -> Double.compare(current[b], current[a]));
+        List<String> top = new ArrayList<>(Math.min(limit, order.length));
+        for (int i = 0; i < order.length && top.size() < limit; i++) {
+            if (current[order[i]] >= MIN_SCORE) {
+                top.add(keys[order[i]]);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * 表示する行を、よく使うアプリ（スコアの高い順）、残り（元の順序のまま）の順に並べ替える
+     * よく使うアプリが1つもなければ rows をそのまま返す
+     */
+    public Ranked rank(AppCatalogStore store, int[] rows, long nowMillis) {
+        int[] positions = new int[Math.min(rows.length, keys.length)];
+        double[] rowScores = new double[positions.length];
+        int count = 0;
+        for (int i = 0; i < rows.length && count < positions.length; i++) {
+            int row = rows[i];
+            if (!packageNames.contains(store.packageName(row))) {
+                continue;
+            }
+            double score = score(AppInfo.keyOf(store.userSerial(row), store.packageName(row)), nowMillis);
+            if (score < MIN_SCORE) {
+                continue;
+            }
+            // 挿入ソート（件数は MAX_ENTRIES 以下。同じスコアなら元の順序）
+            int at = count++;
+            while (at > 0 && rowScores[at - 1] < score) {
+                positions[at] = positions[at - 1];
+                rowScores[at] = rowScores[at - 1];
+                at--;
+            }
+            positions[at] = i;
+            rowScores[at] = score;
+        }
+        if (count == 0) {
+            return new Ranked(rows, 0);
+        }
+
+        int[] ranked = new int[rows.length];
+        boolean[] moved = new boolean[rows.length];
+        for (int i = 0; i < count; i++) {
+            ranked[i] = rows[positions[i]];
+            moved[positions[i]] = true;
+        }
+        int next = count;
+        for (int i = 0; i < rows.length; i++) {
+            if (!moved[i]) {
+                ranked[next++] = rows[i];
+            }
+        }
+        return new Ranked(ranked, count);
+    }
+
+    /**
+     * 件数に続けて、1件ごとにキー・スコア・最後の起動時刻
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            out.writeUTF(keys[i]);
+            out.writeDouble(scores[i]);
+            out.writeLong(lastLaunchTimes[i]);
+        }
+    }
+
+    public static LaunchFrecency read(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IOException("Bad launch history size: " + count);
+        }
+        String[] keys = new String[count];
+        double[] scores = new double[count];
+        long[] lastLaunchTimes = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = in.readUTF();
+            scores[i] = in.readDouble();
+            lastLaunchTimes[i] = in.readLong();
+        }
+        return new LaunchFrecency(keys, scores, lastLaunchTimes);
+    }
+
+    private double scoreAt(int index, long nowMillis) {
+        long elapsed = Math.max(0, nowMillis - lastLaunchTimes[index]);
+        return scores[index] * Math.pow(0.5, (double) elapsed / HALF_LIFE_MS);
+    }
+
+    private double[] currentScores(long nowMillis) {
+        double[] current = new double[keys.length];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = scoreAt(i, nowMillis);
+        }
+        return current;
+    }
+
+    /**
+     * MAX_ENTRIES を超えた分を、keep 以外でスコアの低いものから捨てる
+     */
+    private static LaunchFrecency trimmed(String[] keys, double[] scores, long[] times, int keep,
+            long nowMillis) {
+        LaunchFrecency all = new LaunchFrecency(keys, scores, times);
+        if (keys.length <= MAX_ENTRIES) {
+            return all;
+        }
+        double[] current = all.currentScores(nowMillis);
+        int weakest = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (i != keep && (weakest < 0 || current[i] < current[weakest])) {
+                weakest = i;
+            }
+        }
+        String[] newKeys = new String[keys.length - 1];
+        double[] newScores = new double[keys.length - 1];
+        long[] newTimes = new long[keys.length - 1];
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            if (i != weakest) {
+                newKeys[j] = keys[i];
+                newScores[j] = scores[i];
+                newTimes[j] = times[i];
+                j++;
+            }
+        }
+        return new LaunchFrecency(newKeys, newScores, newTimes);
+    }
+}
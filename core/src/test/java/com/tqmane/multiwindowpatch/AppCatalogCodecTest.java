@@ -0,0 +1,90 @@
+package com.tqmane.multiwindowpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 一覧の直列化の往復と、壊れた入力の扱いの確認
+ */
+public class AppCatalogCodecTest {
+
+    private static byte[] encode(List<AppInfo> apps) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            AppCatalogCodec.writeApps(out, apps);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<AppInfo> decode(byte[] data) throws IOException {
+        return AppCatalogCodec.readApps(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void roundTripKeepsEveryField() throws IOException {
+        List<AppInfo> apps = Arrays.asList(
+            new AppInfo("com.example.camera", "カメラ", Long.MAX_VALUE, 1_700_000_000_000L, true, 0, false),
+            new AppInfo("com.example.mail", "Mail 📧", 3, -1, false, 10, true),
+            new AppInfo("com.example.empty", "", 0, 0, false)
+        );
+
+        List<AppInfo> restored = decode(encode(apps));
+
+        assertEquals(apps.size(), restored.size());
+        for (int i = 0; i < apps.size(); i++) {
+            AppInfo expected = apps.get(i);
+            AppInfo actual = restored.get(i);
+            assertEquals(expected.packageName, actual.packageName);
+            assertEquals(expected.appName, actual.appName);
+            assertEquals(expected.versionCode, actual.versionCode);
+            assertEquals(expected.lastUpdateTime, actual.lastUpdateTime);
+            assertEquals(expected.isSystemApp, actual.isSystemApp);
+            assertEquals(expected.userSerial, actual.userSerial);
+            assertEquals(expected.isWorkProfile, actual.isWorkProfile);
+            // 並び替え用のキーは保存しない（読み込んだ側で計算し直す）
+            assertNull(actual.collationKey);
+            assertNull(actual.sectionLabel);
+        }
+    }
+
+    @Test
+    public void emptyListRoundTrips() throws IOException {
+        assertTrue(decode(encode(Collections.emptyList())).isEmpty());
+    }
+
+    @Test
+    public void negativeCountIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(-1);
+        try {
+            decode(bytes.toByteArray());
+            fail("negative count accepted");
+        } catch (IOException expected) {
+            // 期待どおり
+        }
+    }
+
+    @Test
+    public void truncatedInputIsRejected() throws IOException {
+        byte[] data = encode(Collections.singletonList(new AppInfo("com.example", "Example", 1, 0, false)));
+        try {
+            decode(Arrays.copyOf(data, data.length - 3));
+            fail("truncated input accepted");
+        } catch (IOException expected) {
+            // 期待どおり（EOFException）
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.tqmane.multiwindowpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * withChanges による追加・更新・削除のマージと、並び順の確認
+ */
+public class AppCatalogStoreTest {
+
+    private static AppInfo app(String packageName, String appName) {
+        return new AppInfo(packageName, appName, 1, 0, false);
+    }
+
+    private static AppInfo app(String packageName, String appName, long userSerial) {
+        return new AppInfo(packageName, appName, 1, 0, false, userSerial, userSerial != 0);
+    }
+
+    /** 行を「プロファイル/パッケージ名」の並びに直す */
+    private static List<String> keys(AppCatalogStore store) {
+        List<String> keys = new ArrayList<>();
+        for (int row = 0; row < store.size(); row++) {
+            keys.add(AppInfo.keyOf(store.userSerial(row), store.packageName(row)));
+        }
+        return keys;
+    }
+
+    @Test
+    public void ofSortsByName() {
+        AppCatalogStore store = AppCatalogStore.of(Arrays.asList(
+            app("c", "cherry"), app("a", "Apple"), app("b", "banana")));
+        assertEquals(Arrays.asList("0/a", "0/b", "0/c"), keys(store));
+        assertEquals("Apple", store.appName(0));
+    }
+
+    @Test
+    public void upsertReplacesRowWithSameKeyAndReorders() {
+        AppCatalogStore store = AppCatalogStore.of(Arrays.asList(
+            app("a", "Apple"), app("b", "banana"), app("c", "cherry")));
+
+        AppCatalogStore changed = store.withChanges(
+            Collections.singletonList(app("a", "zucchini")), Collections.emptyList());
+
+        assertEquals(Arrays.asList("0/b", "0/c", "0/a"), keys(changed));
+        assertEquals("zucchini", changed.appName(2));
+        // 元のストアは変わらない
+        assertEquals(Arrays.asList("0/a", "0/b", "0/c"), keys(store));
+        assertEquals("Apple", store.appName(0));
+    }
+
+    @Test
+    public void laterDuplicateInBatchWins() {
+        AppCatalogStore store = AppCatalogStore.EMPTY.withChanges(
+            Arrays.asList(app("a", "old"), app("a", "new")), Collections.emptyList());
+        assertEquals(1, store.size());
+        assertEquals("new", store.appName(0));
+    }
+
+    @Test
+    public void removalOnlyAffectsThatProfile() {
+        AppCatalogStore store = AppCatalogStore.of(Arrays.asList(
+            app("a", "Apple", 0), app("a", "Apple", 10), app("b", "banana", 0)));
+
+        AppCatalogStore changed = store.withChanges(
+            Collections.emptyList(), Collections.singletonList(AppInfo.keyOf(10, "a")));
+
+        assertEquals(Arrays.asList("0/a", "0/b"), keys(changed));
+    }
+
+    @Test
+    public void removingUnknownKeyKeepsEverything() {
+        AppCatalogStore store = AppCatalogStore.of(Arrays.asList(app("a", "Apple"), app("b", "banana")));
+        AppCatalogStore changed = store.withChanges(
+            Collections.emptyList(), Collections.singletonList(AppInfo.keyOf(0, "missing")));
+        assertEquals(keys(store), keys(changed));
+    }
+
+    @Test
+    public void samePackageInTwoProfilesListsPersonalFirst() {
+        AppCatalogStore store = AppCatalogStore.of(Arrays.asList(
+            app("a", "Apple", 10), app("a", "Apple", 0)));
+        assertEquals(Arrays.asList("0/a", "10/a"), keys(store));
+        assertFalse(store.isWorkProfile(0));
+        assertTrue(store.isWorkProfile(1));
+    }
+
+    @Test
+    public void mergeMatchesFullSortAcrossBatches() {
+        AppCollation collation = new AppCollation(Locale.JAPANESE);
+        List<AppInfo> all = new ArrayList<>();
+        AppCatalogStore merged = AppCatalogStore.EMPTY;
+        String[][] batches = {
+            {"カメラ", "Chrome", "ｶﾚﾝﾀﾞｰ"},
+            {"chat", "時計", "Éclair", "apple"},
+            {"Ｂeta", "メモ", "1Password", "地図"},
+        };
+        int next = 0;
+        for (String[] names : batches) {
+            List<AppInfo> batch = new ArrayList<>();
+            for (String name : names) {
+                batch.add(app("p" + next++, name));
+            }
+            collation.assign(batch);
+            all.addAll(batch);
+            merged = merged.withChanges(batch, Collections.emptyList());
+        }
+
+        // 一度に並べた場合と同じ順序になる
+        assertEquals(keys(AppCatalogStore.of(all)), keys(merged));
+        List<AppInfo> sorted = new ArrayList<>(all);
+        AppOrdering.sortByName(sorted);
+        for (int row = 0; row < merged.size(); row++) {
+            assertEquals(sorted.get(row).appName, merged.appName(row));
+        }
+    }
+
+    @Test
+    public void keptRowsKeepTheirOrderAfterRemovals() {
+        List<AppInfo> apps = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            apps.add(app(String.format(Locale.ROOT, "p%02d", i), String.format(Locale.ROOT, "App %02d", i)));
+        }
+        AppCatalogStore store = AppCatalogStore.of(apps);
+
+        AppCatalogStore changed = store.withChanges(
+            Collections.singletonList(app("new", "App 10b")),
+            Arrays.asList(AppInfo.keyOf(0, "p03"), AppInfo.keyOf(0, "p15")));
+
+        List<String> expected = new ArrayList<>(keys(store));
+        expected.remove("0/p03");
+        expected.remove("0/p15");
+        expected.add(expected.indexOf("0/p10") + 1, "0/new");
+        assertEquals(expected, keys(changed));
+    }
+
+    @Test
+    public void storesNormalizedKeysAndSectionLabels() {
+        AppCatalogStore store = AppCatalogStore.of(Collections.singletonList(app("com.Example", "ｶﾒﾗ")));
+        assertEquals("カメラ", store.nameKey(0));
+        assertEquals("com.example", store.packageKey(0));
+        assertEquals("カ", store.sectionLabel(0));
+    }
+
+    @Test
+    public void equalStringsShareOneInstanceAcrossBatches() {
+        AppCatalogStore first = AppCatalogStore.of(Collections.singletonList(app("a", "Mail", 0)));
+        AppCatalogStore second = first.withChanges(
+            Collections.singletonList(app("a", new String("Mail"), 10)), Collections.emptyList());
+        assertSame(second.appName(0), second.appName(1));
+        assertSame(second.sectionLabel(0), second.sectionLabel(1));
+    }
+
+    @Test
+    public void toAppInfoRestoresRow() {
+        AppInfo original = new AppInfo("com.example", "Example", 42, 1234, true, 10, true);
+        AppInfo restored = AppCatalogStore.of(Collections.singletonList(original)).toAppInfo(0);
+        assertEquals(original.packageName, restored.packageName);
+        assertEquals(original.appName, restored.appName);
+        assertEquals(original.versionCode, restored.versionCode);
+        assertEquals(original.lastUpdateTime, restored.lastUpdateTime);
+        assertEquals(original.isSystemApp, restored.isSystemApp);
+        assertEquals(original.userSerial, restored.userSerial);
+        assertEquals(original.isWorkProfile, restored.isWorkProfile);
+    }
+
+    @Test
+    public void diffHelpersCompareIdentityAndContents() {
+        AppCatalogStore before = AppCatalogStore.of(Collections.singletonList(app("a", "Apple")));
+        AppCatalogStore after = before.withChanges(
+            Collections.singletonList(new AppInfo("a", "Apple", 2, 0, false)), Collections.emptyList());
+        AppCatalogStore otherProfile = AppCatalogStore.of(Collections.singletonList(app("a", "Apple", 10)));
+
+        assertTrue(AppCatalogStore.sameItem(before, 0, after, 0));
+        assertFalse(AppCatalogStore.sameContents(before, 0, after, 0));
+        assertTrue(AppCatalogStore.sameContents(before, 0, before, 0));
+        assertFalse(AppCatalogStore.sameItem(before, 0, otherProfile, 0));
+    }
+}
@@ -0,0 +1,71 @@
+package com.tqmane.multiwindowpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * 見出しの決め方と照合キーによる並び順の確認
+ */
+public class AppCollationTest {
+
+    @Test
+    public void latinLettersUseUppercaseWithoutAccents() {
+        assertEquals("A", AppCollation.sectionLabelOf("apple"));
+        assertEquals("A", AppCollation.sectionLabelOf("Apple"));
+        assertEquals("E", AppCollation.sectionLabelOf("Éclair"));
+        assertEquals("B", AppCollation.sectionLabelOf("Ｂeta"));
+    }
+
+    @Test
+    public void kanaUsesRowHeads() {
+        assertEquals("ア", AppCollation.sectionLabelOf("アルバム"));
+        assertEquals("カ", AppCollation.sectionLabelOf("カメラ"));
+        assertEquals("カ", AppCollation.sectionLabelOf("かめら"));
+        assertEquals("カ", AppCollation.sectionLabelOf("ｶﾒﾗ"));
+        assertEquals("カ", AppCollation.sectionLabelOf("ガイド"));
+        assertEquals("ハ", AppCollation.sectionLabelOf("ポスト"));
+        assertEquals("ヤ", AppCollation.sectionLabelOf("ャ"));
+        assertEquals("ワ", AppCollation.sectionLabelOf("ンー"));
+        assertEquals("ア", AppCollation.sectionLabelOf("ヴォイス"));
+        assertEquals("カ", AppCollation.sectionLabelOf("ヶ"));
+    }
+
+    @Test
+    public void kanjiDigitsAndSymbolsAreGrouped() {
+        assertEquals(AppCollation.KANJI_SECTION, AppCollation.sectionLabelOf("地図"));
+        assertEquals(AppCollation.OTHER_SECTION, AppCollation.sectionLabelOf("1Password"));
+        assertEquals(AppCollation.OTHER_SECTION, AppCollation.sectionLabelOf("@home"));
+        assertEquals(AppCollation.OTHER_SECTION, AppCollation.sectionLabelOf(""));
+    }
+
+    @Test
+    public void assignSetsKeyAndLabel() {
+        AppInfo app = new AppInfo("com.example", "ｶﾒﾗ", 1, 0, false);
+        new AppCollation(Locale.JAPANESE).assign(Arrays.asList(app));
+        assertNotNull(app.collationKey);
+        assertEquals("カ", app.sectionLabel);
+    }
+
+    @Test
+    public void keysSortIgnoringCaseAndWidth() {
+        List<AppInfo> apps = new ArrayList<>();
+        for (String name : new String[] {"cherry", "Ｂeta", "apple", "Banana"}) {
+            apps.add(new AppInfo(name, name, 1, 0, false));
+        }
+        new AppCollation(Locale.ENGLISH).assign(apps);
+        AppOrdering.sortByName(apps);
+
+        List<String> names = new ArrayList<>();
+        for (AppInfo app : apps) {
+            names.add(app.appName);
+        }
+        assertEquals(Arrays.asList("apple", "Banana", "Ｂeta", "cherry"), names);
+    }
+}
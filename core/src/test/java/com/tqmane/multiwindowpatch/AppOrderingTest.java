@@ -0,0 +1,72 @@
+package com.tqmane.multiwindowpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * アプリ名順の比較と同名のときの順序の確認
+ */
+public class AppOrderingTest {
+
+    private static AppInfo app(String appName, long userSerial) {
+        return new AppInfo("pkg." + appName, appName, 1, 0, false, userSerial, userSerial != 0);
+    }
+
+    private static void withKey(Collator collator, AppInfo app) {
+        app.collationKey = collator.getCollationKey(app.appName);
+    }
+
+    @Test
+    public void comparesNamesIgnoringCaseWithoutKeys() {
+        assertTrue(AppOrdering.BY_NAME.compare(app("apple", 0), app("Banana", 0)) < 0);
+        assertTrue(AppOrdering.BY_NAME.compare(app("Cherry", 0), app("banana", 0)) > 0);
+    }
+
+    @Test
+    public void sameNameListsLowerProfileSerialFirst() {
+        AppInfo personal = app("Mail", 0);
+        AppInfo work = app("Mail", 10);
+        assertTrue(AppOrdering.BY_NAME.compare(personal, work) < 0);
+        assertTrue(AppOrdering.BY_NAME.compare(work, personal) > 0);
+        assertEquals(0, AppOrdering.BY_NAME.compare(personal, app("mail", 0)));
+    }
+
+    @Test
+    public void collationKeysTakePrecedenceWhenBothPresent() {
+        Collator collator = Collator.getInstance(Locale.ENGLISH);
+        AppInfo accented = app("éclair", 0);
+        AppInfo plain = app("fig", 0);
+
+        // 文字コード順では "é" (U+00E9) は "f" より後
+        assertTrue(AppOrdering.BY_NAME.compare(accented, plain) > 0);
+
+        withKey(collator, accented);
+        assertTrue(AppOrdering.BY_NAME.compare(accented, plain) > 0);
+
+        withKey(collator, plain);
+        assertTrue(AppOrdering.BY_NAME.compare(accented, plain) < 0);
+    }
+
+    @Test
+    public void equalKeysFallBackToNameThenSerial() {
+        Collator collator = Collator.getInstance(Locale.ENGLISH);
+        collator.setStrength(Collator.PRIMARY);
+        AppInfo upper = app("Note", 10);
+        AppInfo lower = app("note", 0);
+        AppInfo accented = app("Noté", 0);
+        for (AppInfo app : new AppInfo[] {upper, lower, accented}) {
+            withKey(collator, app);
+        }
+
+        List<AppInfo> apps = Arrays.asList(accented, upper, lower);
+        AppOrdering.sortByName(apps);
+        assertEquals(Arrays.asList(lower, upper, accented), apps);
+    }
+}
@@ -0,0 +1,92 @@
+package com.tqmane.multiwindowpatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * 検索の正規化と、直前の結果を使う絞り込みの確認
+ */
+public class AppSearchIndexTest {
+
+    private static AppCatalogStore catalog() {
+        return AppCatalogStore.of(Arrays.asList(
+            new AppInfo("com.android.chrome", "Chrome", 1, 0, false),
+            new AppInfo("com.example.camera", "カメラ", 1, 0, false),
+            new AppInfo("com.example.chat", "Chat", 1, 0, false),
+            new AppInfo("com.example.clock", "時計", 1, 0, false),
+            new AppInfo("org.example.notes", "ＭｅｍｏＰａｄ", 1, 0, false)
+        ));
+    }
+
+    /** 行番号をアプリ名の並びに直す */
+    private static String[] names(AppCatalogStore store, int[] rows) {
+        String[] names = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            names[i] = store.appName(rows[i]);
+        }
+        return names;
+    }
+
+    @Test
+    public void normalizeFoldsWidthCaseAndHiragana() {
+        assertEquals("memopad", AppSearchIndex.normalize("ＭｅｍｏＰａｄ"));
+        assertEquals("カメラ", AppSearchIndex.normalize("ｶﾒﾗ"));
+        assertEquals("カメラ", AppSearchIndex.normalize("かめら"));
+        assertEquals("ガ", AppSearchIndex.normalize("ｶﾞ"));
+        assertEquals("", AppSearchIndex.normalize(null));
+        assertEquals("", AppSearchIndex.normalize(""));
+    }
+
+    @Test
+    public void normalizeReturnsSameInstanceWhenUnchanged() {
+        String name = "chrome";
+        assertSame(name, AppSearchIndex.normalize(name));
+    }
+
+    @Test
+    public void emptyQueryReturnsAllRowsInStoreOrder() {
+        AppSearchIndex index = AppSearchIndex.build(catalog());
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, index.search(""));
+    }
+
+    @Test
+    public void matchesNormalizedNamesAndPackages() {
+        AppCatalogStore store = catalog();
+        AppSearchIndex index = AppSearchIndex.build(store);
+
+        assertArrayEquals(new String[] {"カメラ"}, names(store, index.search("かめら")));
+        assertArrayEquals(new String[] {"カメラ"}, names(store, index.search("ｶﾒﾗ")));
+        assertArrayEquals(new String[] {"ＭｅｍｏＰａｄ"}, names(store, index.search("MEMO")));
+        // アプリ名ではなくパッケージ名で一致
+        assertArrayEquals(new String[] {"時計"}, names(store, index.search("clock")));
+    }
+
+    @Test
+    public void extendedQueryNarrowsPreviousResult() {
+        AppCatalogStore store = catalog();
+        AppSearchIndex index = AppSearchIndex.build(store);
+
+        String[] queries = {"c", "ch", "chr", "ch", "cha", "x", "c", "co"};
+        for (String query : queries) {
+            // 1回だけ検索した新しいインデックスと同じ結果になる
+            int[] expected = AppSearchIndex.build(store).search(query);
+            assertArrayEquals(query, expected, index.search(query));
+        }
+    }
+
+    @Test
+    public void resultsAreNotOverwrittenByLaterSearches() {
+        AppCatalogStore store = catalog();
+        AppSearchIndex index = AppSearchIndex.build(store);
+
+        int[] first = index.search("c");
+        int[] copy = first.clone();
+        index.search("chr");
+        assertArrayEquals(copy, first);
+    }
+}